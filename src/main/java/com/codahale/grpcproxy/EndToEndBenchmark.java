@@ -0,0 +1,287 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.admission.ByteBudget;
+import com.codahale.grpcproxy.admission.FairQueue;
+import com.codahale.grpcproxy.config.ProxyConfig;
+import com.codahale.grpcproxy.helloworld.HelloRequest;
+import com.codahale.grpcproxy.stats.BenchmarkCase;
+import com.codahale.grpcproxy.util.Netty;
+import com.codahale.grpcproxy.util.StatsTracerFactory;
+import com.codahale.grpcproxy.util.TlsContext;
+import com.codahale.grpcproxy.util.TransportOptions;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import io.airlift.airline.Command;
+import io.airlift.airline.Option;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import net.logstash.logback.marker.Markers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An end-to-end benchmark of the proxy. Runs the legacy HTTP server, the proxy in front of it, and
+ * a plain gRPC server on loopback, then sends the same closed-loop load to the proxy and to the
+ * gRPC server for every combination of concurrency, payload size, and TLS, so the proxy's overhead
+ * can be told apart from the cost of gRPC itself.
+ */
+class EndToEndBenchmark {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EndToEndBenchmark.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final int port;
+  private final LoadDriver driver;
+  private final EventLoopGroup eventLoopGroup = Netty.newWorkerEventLoopGroup();
+
+  private EndToEndBenchmark(int port, long warmup, long duration, TimeUnit unit) {
+    this.port = port;
+    this.driver = new LoadDriver(warmup, duration, unit);
+  }
+
+  /** Runs every combination of concurrency and payload size with the given TLS context. */
+  private List<BenchmarkCase> run(
+      @Nullable TlsContext tls, List<Integer> concurrencies, List<Integer> payloadSizes)
+      throws IOException, InterruptedException {
+    final ProxyRpcServer proxy =
+        new ProxyRpcServer(
+            port + 1,
+            tls,
+            ProxyConfig.forUpstream("http://localhost:" + port + "/grpc"),
+            null,
+            new StatsTracerFactory(),
+            new FairQueue(1_000, 1_000, 5, 100, TimeUnit.MILLISECONDS),
+            new ByteBudget(Runtime.getRuntime().maxMemory() / 4),
+            ImmutableList.of(),
+            new TransportOptions(),
+            null);
+    final HelloWorldServer direct = new HelloWorldServer(port + 2, tls, new TransportOptions());
+    proxy.start();
+    direct.start();
+    final ManagedChannel proxyChannel = channel(port + 1, tls);
+    final ManagedChannel directChannel = channel(port + 2, tls);
+    try {
+      final List<BenchmarkCase> cases = new ArrayList<>();
+      for (int concurrency : concurrencies) {
+        for (int payloadSize : payloadSizes) {
+          final HelloRequest request =
+              HelloRequest.newBuilder().setName(Strings.repeat("x", payloadSize)).build();
+          final BenchmarkCase result =
+              BenchmarkCase.create(
+                  concurrency,
+                  payloadSize,
+                  tls != null,
+                  driver.drive(directChannel, concurrency, request),
+                  driver.drive(proxyChannel, concurrency, request));
+          LOGGER.info(
+              Markers.append("case", result),
+              "concurrency={} payload_size={} tls={}: {} req/sec direct, {} req/sec proxied",
+              concurrency,
+              payloadSize,
+              tls != null,
+              result.direct().throughput(),
+              result.proxy().throughput());
+          cases.add(result);
+        }
+      }
+      return cases;
+    } finally {
+      proxyChannel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+      directChannel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+      proxy.stop();
+      direct.stop();
+    }
+  }
+
+  private ManagedChannel channel(int port, @Nullable TlsContext tls) throws IOException {
+    final NettyChannelBuilder builder =
+        NettyChannelBuilder.forAddress("localhost", port)
+            .eventLoopGroup(eventLoopGroup)
+            .channelType(Netty.clientChannelType());
+    if (tls == null) {
+      builder.usePlaintext(true);
+    } else {
+      builder.sslContext(tls.toClientContext());
+    }
+    return builder.build();
+  }
+
+  private void close() {
+    eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Returns the cases which were slower than their counterparts in the baseline by more than the
+   * given fraction, in either the proxy's throughput or its p99.
+   */
+  private static List<BenchmarkCase> regressions(
+      List<BenchmarkCase> cases, List<BenchmarkCase> baseline, double tolerance) {
+    final List<BenchmarkCase> regressions = new ArrayList<>();
+    for (BenchmarkCase result : cases) {
+      for (BenchmarkCase base : baseline) {
+        if (!result.sameParameters(base)) {
+          continue;
+        }
+        final boolean slower =
+            result.proxy().throughput() < base.proxy().throughput() * (1 - tolerance);
+        final boolean laggier = result.proxy().p99() > base.proxy().p99() * (1 + tolerance);
+        if (slower || laggier) {
+          LOGGER.error(
+              Markers.append("case", result).and(Markers.append("baseline", base)),
+              "Regression at concurrency={} payload_size={} tls={}: {} req/sec (was {}), p99 {}s"
+                  + " (was {}s)",
+              result.concurrency(),
+              result.payloadSize(),
+              result.tls(),
+              result.proxy().throughput(),
+              base.proxy().throughput(),
+              result.proxy().p99(),
+              base.proxy().p99());
+          regressions.add(result);
+        }
+      }
+    }
+    return regressions;
+  }
+
+  private static <T> List<T> parse(String list, Function<String, T> f) {
+    final ImmutableList.Builder<T> values = ImmutableList.builder();
+    for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(list)) {
+      values.add(f.apply(value));
+    }
+    return values.build();
+  }
+
+  @Command(name = "e2e", description = "Benchmark the proxy against direct gRPC calls.")
+  public static class Cmd implements Runnable {
+
+    @Option(
+      name = {"-c", "--concurrency"},
+      description = "a comma-separated list of the numbers of concurrent calls to make"
+    )
+    private String concurrency = "1,16,64";
+
+    @Option(
+      name = {"-s", "--payload-sizes"},
+      description = "a comma-separated list of request sizes, in bytes"
+    )
+    private String payloadSizes = "16,1024,65536";
+
+    @Option(
+      name = "--tls",
+      description = "a comma-separated list of whether to use TLS (true, false, or both)"
+    )
+    private String tls = "false,true";
+
+    @Option(
+      name = {"-w", "--warmup"},
+      description = "the number of seconds to warm up each case for"
+    )
+    private int warmup = 2;
+
+    @Option(
+      name = {"-d", "--duration"},
+      description = "the number of seconds to measure each case for"
+    )
+    private int duration = 5;
+
+    @Option(
+      name = {"-p", "--port"},
+      description = "the first of three consecutive ports to run servers on"
+    )
+    private int port = 50100;
+
+    @Option(
+      name = {"-o", "--output"},
+      description = "the path to write the JSON report to"
+    )
+    private String output = "bench-e2e.json";
+
+    @Option(
+      name = "--baseline",
+      description = "the path of a previous report to compare against, failing if slower"
+    )
+    private String baseline;
+
+    @Option(
+      name = "--tolerance",
+      description = "the percentage by which throughput or p99 can get worse before failing"
+    )
+    private double tolerance = 10;
+
+    @Option(name = "--ca-certs")
+    private String trustedCertsPath = "cert.crt";
+
+    @Option(name = "--cert")
+    private String certPath = "cert.crt";
+
+    @Option(name = "--key")
+    private String keyPath = "cert.key";
+
+    @Override
+    public void run() {
+      final List<Integer> concurrencies = parse(concurrency, Integer::parseInt);
+      final List<Integer> sizes = parse(payloadSizes, Integer::parseInt);
+      final List<BenchmarkCase> cases = new ArrayList<>();
+      final EndToEndBenchmark benchmark =
+          new EndToEndBenchmark(port, warmup, duration, TimeUnit.SECONDS);
+      final LegacyHttpServer upstream = new LegacyHttpServer(port, 200, true, 4 << 20);
+      int status = 2;
+      try {
+        // read the baseline first, so a bad one fails before the benchmark runs rather than after
+        final List<BenchmarkCase> previous =
+            baseline == null
+                ? null
+                : MAPPER.readValue(new File(baseline), new TypeReference<List<BenchmarkCase>>() {});
+        upstream.start();
+        for (boolean secure : parse(tls, Boolean::parseBoolean)) {
+          final TlsContext context =
+              secure ? new TlsContext(trustedCertsPath, certPath, keyPath) : null;
+          cases.addAll(benchmark.run(context, concurrencies, sizes));
+        }
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(new File(output), cases);
+        LOGGER.info("Wrote {} cases to {}", cases.size(), output);
+
+        status = 0;
+        if (previous != null) {
+          if (regressions(cases, previous, tolerance / 100).isEmpty()) {
+            LOGGER.info("No regressions against {}", baseline);
+          } else {
+            status = 1;
+          }
+        }
+      } catch (Exception e) {
+        LOGGER.error("Error running command", e);
+      } finally {
+        benchmark.close();
+        upstream.stop();
+      }
+      System.exit(status);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.helloworld.HelloRequest;
+import com.codahale.grpcproxy.util.ProtoFields;
+import com.google.common.base.Splitter;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.airlift.airline.Command;
+import io.airlift.airline.Option;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.ToLongFunction;
+import net.logstash.logback.marker.Markers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A microbenchmark of shard key extraction. Compares walking the tags of an encoded {@code
+ * HelloRequest} for its {@code name} field against decoding the whole message, for messages of the
+ * same size split into different numbers of fields. Every tag has to be read whatever the field's
+ * position, so the cost of a scan depends on how many fields the message has rather than its size.
+ */
+class FieldExtractionBenchmark {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FieldExtractionBenchmark.class);
+  private static final int NAME_FIELD = 1;
+
+  private final int warmups;
+  private final int iterations;
+  private long sink;
+
+  private FieldExtractionBenchmark(int warmups, int iterations) {
+    this.warmups = warmups;
+    this.iterations = iterations;
+  }
+
+  // Builds a message with a number of unknown padding fields and the name field.
+  private static byte[] message(int size, int fields) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64);
+    final CodedOutputStream coded = CodedOutputStream.newInstance(out);
+    final byte[] padding = new byte[Math.max(0, size / fields)];
+    for (int i = 0; i < fields; i++) {
+      // alternate between length-delimited and varint fields to exercise both skip paths
+      coded.writeByteArray(2 + (i % 100), padding);
+      coded.writeInt64(200 + (i % 100), i * 1_000_003L);
+    }
+    coded.writeString(NAME_FIELD, "user-12345");
+    coded.flush();
+    return out.toByteArray();
+  }
+
+  private void run(String name, int fields, byte[] msg, ToLongFunction<byte[]> f) {
+    for (int i = 0; i < warmups; i++) {
+      sink += f.applyAsLong(msg);
+    }
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink += f.applyAsLong(msg);
+    }
+    final double nanos = (double) (System.nanoTime() - start) / iterations;
+
+    LOGGER.info(
+        Markers.append("case", name)
+            .and(Markers.append("fields", fields))
+            .and(Markers.append("message_size", msg.length))
+            .and(Markers.append("ns_per_op", nanos))
+            .and(Markers.append("mb_per_sec", msg.length / nanos * 1e9 / (1 << 20))),
+        "{} ({} fields): {} ns/op",
+        name,
+        fields,
+        nanos);
+  }
+
+  private static long scan(byte[] msg) {
+    return ProtoFields.find(msg, NAME_FIELD);
+  }
+
+  private static long parse(byte[] msg) {
+    try {
+      return HelloRequest.parseFrom(msg).getName().length();
+    } catch (InvalidProtocolBufferException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Command(name = "field-extraction", description = "Benchmark shard key extraction.")
+  public static class Cmd implements Runnable {
+
+    @Option(
+      name = {"-s", "--size"},
+      description = "the approximate size of each message in bytes"
+    )
+    private int size = 1 << 20;
+
+    @Option(
+      name = {"-f", "--fields"},
+      description = "a comma-separated list of the numbers of padding fields to try"
+    )
+    private String fields = "10,100,1000,10000";
+
+    @Option(
+      name = {"-w", "--warmups"},
+      description = "the number of warmup iterations per case"
+    )
+    private int warmups = 5_000;
+
+    @Option(
+      name = {"-n", "--iterations"},
+      description = "the number of measured iterations per case"
+    )
+    private int iterations = 5_000;
+
+    @Override
+    public void run() {
+      try {
+        final FieldExtractionBenchmark benchmark =
+            new FieldExtractionBenchmark(warmups, iterations);
+        for (String s : Splitter.on(',').trimResults().omitEmptyStrings().split(fields)) {
+          final int n = Integer.parseInt(s);
+          final byte[] msg = message(size, n);
+          benchmark.run("scan", n, msg, FieldExtractionBenchmark::scan);
+          benchmark.run("parse", n, msg, FieldExtractionBenchmark::parse);
+        }
+        LOGGER.debug("sink: {}", benchmark.sink);
+      } catch (IOException e) {
+        LOGGER.error("Error running command", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.helloworld.HelloRequest;
+import com.codahale.grpcproxy.stats.BenchmarkResult;
+import com.codahale.grpcproxy.util.Netty;
+import com.codahale.grpcproxy.util.TransportOptions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import io.airlift.airline.Command;
+import io.airlift.airline.Option;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.channel.EventLoopGroup;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import net.logstash.logback.marker.Markers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A benchmark of large-payload throughput with different HTTP/2 flow-control windows. Runs a plain
+ * gRPC server with each fixed window and with auto-tuning, and sends it large requests from a
+ * client whose own window is big enough that the responses aren't what's throttled.
+ *
+ * <p>A window only limits throughput when it's smaller than the connection's bandwidth-delay
+ * product, which is tiny on loopback. Run the server on another host with {@code server grpc} and
+ * point the benchmark at it with {@code --host} to see the difference a real network makes.
+ */
+class FlowControlBenchmark {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FlowControlBenchmark.class);
+  private static final String AUTO = "auto";
+
+  private final int payloadSize;
+  private final int concurrency;
+  private final LoadDriver driver;
+  private final EventLoopGroup eventLoopGroup = Netty.newWorkerEventLoopGroup();
+
+  private FlowControlBenchmark(
+      int payloadSize, int concurrency, long warmup, long duration, TimeUnit unit) {
+    this.payloadSize = payloadSize;
+    this.concurrency = concurrency;
+    this.driver = new LoadDriver(warmup, duration, unit);
+  }
+
+  /** Runs a server on the given port with the given window, and measures calls to it. */
+  private void run(int port, String window, int clientWindow)
+      throws IOException, InterruptedException {
+    final boolean auto = window.equals(AUTO);
+    final TransportOptions transport =
+        new TransportOptions()
+            .flowControlWindow(
+                auto ? NettyServerBuilder.DEFAULT_FLOW_CONTROL_WINDOW : Integer.parseInt(window))
+            .autoFlowControl(auto)
+            .maxMessageSize(maxMessageSize());
+    final HelloWorldServer server = new HelloWorldServer(port, null, transport);
+    server.start();
+    try {
+      measure(window, "localhost", port, clientWindow);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private void measure(String window, String host, int port, int clientWindow)
+      throws InterruptedException {
+    final ManagedChannel channel =
+        NettyChannelBuilder.forAddress(host, port)
+            .eventLoopGroup(eventLoopGroup)
+            .channelType(Netty.clientChannelType())
+            .flowControlWindow(clientWindow)
+            .maxInboundMessageSize(maxMessageSize())
+            .usePlaintext(true)
+            .build();
+    try {
+      final HelloRequest request =
+          HelloRequest.newBuilder().setName(Strings.repeat("x", payloadSize)).build();
+      final BenchmarkResult result = driver.drive(channel, concurrency, request);
+      final double mbPerSec = result.throughput() * payloadSize / (1 << 20);
+      LOGGER.info(
+          Markers.append("window", window)
+              .and(Markers.append("payload_size", payloadSize))
+              .and(Markers.append("concurrency", concurrency))
+              .and(Markers.append("mb_per_sec", mbPerSec))
+              .and(Markers.append("result", result)),
+          "window={}: {} MB/sec, p50 {}s, p99 {}s",
+          window,
+          mbPerSec,
+          result.p50(),
+          result.p99());
+    } finally {
+      channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  // Leaves room for the reply's greeting.
+  private int maxMessageSize() {
+    return payloadSize + 1024;
+  }
+
+  private void close() {
+    eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+  }
+
+  @Command(name = "flow-control", description = "Benchmark throughput with different windows.")
+  public static class Cmd implements Runnable {
+
+    @Option(
+      name = "--windows",
+      description = "a comma-separated list of server windows in bytes, or auto to auto-tune"
+    )
+    private String windows = "65535,1048576,8388608,auto";
+
+    @Option(
+      name = "--client-window",
+      description = "the client's flow-control window, in bytes"
+    )
+    private int clientWindow = 8 << 20;
+
+    @Option(
+      name = {"-s", "--payload-size"},
+      description = "the size of each request, in bytes"
+    )
+    private int payloadSize = 4 << 20;
+
+    @Option(
+      name = {"-c", "--concurrency"},
+      description = "the number of concurrent calls to make"
+    )
+    private int concurrency = 1;
+
+    @Option(
+      name = {"-w", "--warmup"},
+      description = "the number of seconds to warm up each case for"
+    )
+    private int warmup = 2;
+
+    @Option(
+      name = {"-d", "--duration"},
+      description = "the number of seconds to measure each case for"
+    )
+    private int duration = 5;
+
+    @Option(
+      name = "--host",
+      description = "the host of an already-running gRPC server to measure instead"
+    )
+    private String host;
+
+    @Option(
+      name = {"-p", "--port"},
+      description = "the port of the remote server, or the first of the ports to run servers on"
+    )
+    private int port = 50200;
+
+    @Override
+    public void run() {
+      final FlowControlBenchmark benchmark =
+          new FlowControlBenchmark(payloadSize, concurrency, warmup, duration, TimeUnit.SECONDS);
+      try {
+        if (host != null) {
+          benchmark.measure(host + ":" + port, host, port, clientWindow);
+          return;
+        }
+        int casePort = port;
+        for (String window : Splitter.on(',').trimResults().omitEmptyStrings().split(windows)) {
+          benchmark.run(casePort++, window, clientWindow);
+        }
+      } catch (IOException | InterruptedException e) {
+        LOGGER.error("Error running command", e);
+      } finally {
+        benchmark.close();
+      }
+    }
+  }
+}
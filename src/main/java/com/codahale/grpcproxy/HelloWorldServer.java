@@ -17,6 +17,7 @@ package com.codahale.grpcproxy;
 import com.codahale.grpcproxy.util.Netty;
 import com.codahale.grpcproxy.util.StatsTracerFactory;
 import com.codahale.grpcproxy.util.TlsContext;
+import com.codahale.grpcproxy.util.TransportOptions;
 import io.airlift.airline.Command;
 import io.airlift.airline.Option;
 import io.grpc.Server;
@@ -24,6 +25,8 @@ import io.grpc.netty.NettyServerBuilder;
 import io.netty.channel.EventLoopGroup;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.net.ssl.SSLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,30 +39,34 @@ class HelloWorldServer {
   private final Server server;
   private final StatsTracerFactory stats;
 
-  private HelloWorldServer(int port, TlsContext tls) throws SSLException {
+  /** @param tls the server's TLS context, or {@code null} to accept plaintext connections */
+  HelloWorldServer(int port, @Nullable TlsContext tls, TransportOptions transport)
+      throws SSLException {
     this.stats = new StatsTracerFactory();
     this.bossEventLoopGroup = Netty.newBossEventLoopGroup();
     this.workerEventLoopGroup = Netty.newWorkerEventLoopGroup();
-    this.server =
+    final NettyServerBuilder builder =
         NettyServerBuilder.forPort(port)
             .bossEventLoopGroup(bossEventLoopGroup)
             .workerEventLoopGroup(workerEventLoopGroup)
             .channelType(Netty.serverChannelType())
             .addStreamTracerFactory(stats)
-            .sslContext(tls.toServerContext())
-            .addService(new GreeterService())
-            .build();
+            .addService(new GreeterService());
+    this.server = transport.configure(builder, tls).build();
   }
 
-  private void start() throws IOException, InterruptedException {
+  void start() throws IOException {
     stats.start();
     server.start();
     LOGGER.info("Server started, listening on {}", server.getPort());
     Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+  }
+
+  private void blockUntilShutdown() throws InterruptedException {
     server.awaitTermination();
   }
 
-  private void stop() {
+  void stop() {
     stats.stop();
     if (!server.isShutdown()) {
       server.shutdown();
@@ -77,6 +84,8 @@ class HelloWorldServer {
     )
     private int port = 50051;
 
+    @Inject private TransportOptions transport = new TransportOptions();
+
     @Option(name = "--ca-certs")
     private String trustedCertsPath = "cert.crt";
 
@@ -90,8 +99,9 @@ class HelloWorldServer {
     public void run() {
       try {
         final TlsContext tls = new TlsContext(trustedCertsPath, certPath, keyPath);
-        final HelloWorldServer server = new HelloWorldServer(port, tls);
+        final HelloWorldServer server = new HelloWorldServer(port, tls, transport);
         server.start();
+        server.blockUntilShutdown();
       } catch (IOException | InterruptedException e) {
         LOGGER.error("Error running command", e);
       }
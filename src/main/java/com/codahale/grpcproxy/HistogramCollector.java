@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.stats.EncodedHistogram;
+import com.codahale.grpcproxy.stats.FleetSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.airlift.airline.Command;
+import io.airlift.airline.Option;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.logstash.logback.marker.LogstashMarker;
+import net.logstash.logback.marker.Markers;
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the interval histograms shipped by proxy instances, either as JSON arrays in HTTP
+ * {@code POST} requests or as JSON objects in UDP datagrams on the same port, merges them by
+ * method, and periodically reports fleet-wide throughput and latency percentiles.
+ *
+ * <p>Unlike averaging each instance's percentiles, merging their histograms gives the true
+ * percentiles of every call made to the fleet.
+ *
+ * <p>Histograms are merged into fixed windows of wall-clock time by the interval they cover, not by
+ * when they arrive, so a delayed or batched shipment still counts towards the right window. A
+ * window is only reported once it's been over for a grace period, and histograms which arrive
+ * after their window has been reported are dropped and counted as late. Histograms for windows
+ * more than a few intervals in the future, from instances whose clocks are ahead of the collector's,
+ * are dropped and counted as skewed rather than held until their window comes around.
+ */
+class HistogramCollector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HistogramCollector.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int MAX_DATAGRAM_SIZE = 65_507;
+  private static final long MAX_WINDOWS_AHEAD = 3;
+
+  private final long interval;
+  private final long grace;
+  private final Server server;
+  private final DatagramSocket socket;
+  private final ScheduledExecutorService executor;
+  private final TreeMap<Long, Map<String, Merged>> windows = new TreeMap<>();
+  private long nextWindow;
+  private long late;
+  private long skewed;
+
+  private HistogramCollector(int port, long interval, long grace) throws SocketException {
+    this.interval = TimeUnit.SECONDS.toMillis(interval);
+    this.grace = TimeUnit.SECONDS.toMillis(grace);
+    // the window under way is missing whatever was shipped before now, so skip it
+    this.nextWindow = System.currentTimeMillis() / this.interval + 1;
+    this.server = new Server(port);
+    server.setHandler(
+        new AbstractHandler() {
+          @Override
+          public void handle(
+              String target,
+              Request baseRequest,
+              HttpServletRequest request,
+              HttpServletResponse response)
+              throws IOException {
+            if ("POST".equals(request.getMethod())) {
+              baseRequest.setHandled(true);
+              final EncodedHistogram[] histograms =
+                  MAPPER.readValue(request.getInputStream(), EncodedHistogram[].class);
+              for (EncodedHistogram histogram : histograms) {
+                add(histogram);
+              }
+              response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            }
+          }
+        });
+    this.socket = new DatagramSocket(port);
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  private void start() throws Exception {
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    server.start();
+    final Thread receiver = new Thread(this::receive, "histogram-receiver");
+    receiver.setDaemon(true);
+    receiver.start();
+    executor.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
+    LOGGER.info("Collector started, listening on " + socket.getLocalPort());
+  }
+
+  private void stop() {
+    executor.shutdown();
+    socket.close();
+    try {
+      server.stop();
+    } catch (Exception e) {
+      LOGGER.error("Error shutting down server", e);
+    }
+  }
+
+  private void receive() {
+    final byte[] buf = new byte[MAX_DATAGRAM_SIZE];
+    final DatagramPacket packet = new DatagramPacket(buf, buf.length);
+    while (!socket.isClosed()) {
+      try {
+        socket.receive(packet);
+        add(MAPPER.readValue(buf, 0, packet.getLength(), EncodedHistogram.class));
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          LOGGER.warn("Error receiving histogram", e);
+        }
+      }
+    }
+  }
+
+  private void add(EncodedHistogram encoded) {
+    final Histogram histogram;
+    try {
+      histogram = encoded.decode();
+    } catch (DataFormatException | RuntimeException e) {
+      LOGGER.warn("Bad histogram from {}", encoded.instance(), e);
+      return;
+    }
+
+    // a window is made up of the histograms whose intervals are centered in it
+    final long window = (encoded.startTime() + encoded.endTime()) / 2 / interval;
+    final long current = System.currentTimeMillis() / interval;
+    synchronized (this) {
+      if (window < nextWindow) {
+        late++;
+        return;
+      }
+
+      if (window > current + MAX_WINDOWS_AHEAD) {
+        skewed++;
+        return;
+      }
+
+      final Map<String, Merged> methods = windows.computeIfAbsent(window, k -> new HashMap<>());
+      final Merged merged = methods.get(encoded.method());
+      if (merged == null) {
+        // Merge into the first histogram so the fleet's have the same precision as instances'.
+        histogram.setAutoResize(true);
+        methods.put(encoded.method(), new Merged(encoded.instance(), histogram));
+      } else {
+        merged.instances.add(encoded.instance());
+        merged.histogram.add(histogram);
+      }
+    }
+  }
+
+  // Reports each window which has been over for the grace period, in order.
+  private void report() {
+    final long complete = (System.currentTimeMillis() - grace) / interval;
+    while (true) {
+      final long window;
+      final Map<String, Merged> merged;
+      final long dropped;
+      final long ahead;
+      synchronized (this) {
+        if (nextWindow >= complete) {
+          return;
+        }
+        window = nextWindow++;
+        final Map<String, Merged> methods = windows.remove(window);
+        merged = methods == null ? new HashMap<>() : methods;
+        dropped = late;
+        this.late = 0;
+        ahead = skewed;
+        this.skewed = 0;
+      }
+
+      final double seconds = interval * 1e-3;
+      LogstashMarker marker =
+          Markers.append("start_time", window * interval)
+              .and(Markers.append("interval", seconds))
+              .and(Markers.append("late", dropped))
+              .and(Markers.append("skewed", ahead));
+      for (Map.Entry<String, Merged> entry : new TreeMap<>(merged).entrySet()) {
+        final Merged m = entry.getValue();
+        marker =
+            marker.and(
+                Markers.append(
+                    entry.getKey(),
+                    FleetSnapshot.create(m.instances.size(), m.histogram, seconds)));
+      }
+      LOGGER.info(marker, "fleet stats");
+    }
+  }
+
+  private static class Merged {
+
+    private final Set<String> instances = new HashSet<>();
+    private final Histogram histogram;
+
+    private Merged(String instance, Histogram histogram) {
+      this.instances.add(instance);
+      this.histogram = histogram;
+    }
+  }
+
+  @Command(name = "collector", description = "Run a collector for proxy latency histograms.")
+  public static class Cmd implements Runnable {
+
+    @Option(
+      name = {"-p", "--port"},
+      description = "the HTTP and UDP port to listen on"
+    )
+    private int port = 8125;
+
+    @Option(
+      name = {"-i", "--interval"},
+      description = "the number of seconds in each reported window"
+    )
+    private long interval = 10;
+
+    @Option(
+      name = "--grace",
+      description = "the number of seconds to wait for late histograms before reporting a window"
+    )
+    private long grace = 5;
+
+    @Override
+    public void run() {
+      try {
+        new HistogramCollector(port, interval, grace).start();
+      } catch (Exception e) {
+        LOGGER.error("Error starting collector", e);
+      }
+    }
+  }
+}
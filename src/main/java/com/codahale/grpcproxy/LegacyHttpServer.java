@@ -16,9 +16,23 @@ package com.codahale.grpcproxy;
 
 import com.codahale.grpcproxy.helloworld.HelloReply;
 import com.codahale.grpcproxy.helloworld.HelloRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
 import io.airlift.airline.Command;
 import io.airlift.airline.Option;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.server.Request;
@@ -32,13 +46,24 @@ import org.slf4j.LoggerFactory;
 /**
  * An HTTP/1.1 server which parses protobuf messages in request bodies and emits protobuf messages
  * in response bodies. Implements, in its own way, the {@code helloworld.Greeter} service.
+ *
+ * <p>Methods are dispatched through a table built at startup, which is listed at {@code GET
+ * /methods}. In async mode, request bodies are read without blocking into a single buffer sized by
+ * the {@code Content-Length}, or grown as they arrive if they have none, and parsed in place; in
+ * either mode, responses are written in a single write with a known length. Bodies larger than the
+ * maximum size are rejected with a 413, up front if their {@code Content-Length} says so.
  */
 class LegacyHttpServer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(LegacyHttpServer.class);
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
   private final Server server;
+  private final int maxBodySize;
+  private final ImmutableMap<String, UnaryMethod> methods =
+      ImmutableMap.of("helloworld.Greeter/SayHello", LegacyHttpServer::sayHello);
 
-  private LegacyHttpServer(int port, int threads) {
+  LegacyHttpServer(int port, int threads, boolean async, int maxBodySize) {
+    this.maxBodySize = maxBodySize;
     this.server = new Server(new QueuedThreadPool(threads));
     server.setHandler(
         new AbstractHandler() {
@@ -49,10 +74,22 @@ class LegacyHttpServer {
               HttpServletRequest request,
               HttpServletResponse response)
               throws IOException {
-            final String method = baseRequest.getParameter("method");
-            if ("helloworld.Greeter/SayHello".equals(method)) {
+            if (target.equals("/methods") && request.getMethod().equals("GET")) {
+              baseRequest.setHandled(true);
+              listMethods(response);
+              return;
+            }
+
+            final UnaryMethod method = methods.get(baseRequest.getParameter("method"));
+            if (method != null) {
               baseRequest.setHandled(true);
-              sayHello(baseRequest, response);
+              if (request.getContentLengthLong() > maxBodySize) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+              } else if (async) {
+                handleAsync(method, baseRequest, response);
+              } else {
+                handleBlocking(method, request, response);
+              }
             }
           }
         });
@@ -62,12 +99,12 @@ class LegacyHttpServer {
     server.addConnector(connector);
   }
 
-  private void start() throws Exception {
+  void start() throws Exception {
     Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
     server.start();
   }
 
-  private void stop() {
+  void stop() {
     try {
       server.stop();
     } catch (Exception e) {
@@ -75,11 +112,161 @@ class LegacyHttpServer {
     }
   }
 
-  private void sayHello(Request request, HttpServletResponse response) throws IOException {
-    final HelloRequest req = HelloRequest.parseFrom(request.getInputStream());
+  private void listMethods(HttpServletResponse response) throws IOException {
+    final String list = String.join("\n", methods.keySet()) + "\n";
+    final byte[] body = list.getBytes(StandardCharsets.UTF_8);
+    response.setContentType("text/plain; charset=utf-8");
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private void handleAsync(UnaryMethod method, Request request, HttpServletResponse response)
+      throws IOException {
+    final AsyncContext async = request.startAsync();
+    final ServletInputStream in = request.getInputStream();
+    in.setReadListener(
+        new BodyReader(method, request.getContentLength(), maxBodySize, in, async, response));
+  }
+
+  private void handleBlocking(
+      UnaryMethod method, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    final CountingInputStream in =
+        new CountingInputStream(ByteStreams.limit(request.getInputStream(), maxBodySize + 1L));
+    final CodedInputStream coded = CodedInputStream.newInstance(in);
+    coded.setSizeLimit(Integer.MAX_VALUE); // the stream's limit is the one which matters
+    MessageLite reply;
+    try {
+      reply = method.invoke(coded);
+    } catch (InvalidProtocolBufferException e) {
+      reply = null;
+    }
+    // a body cut off at the limit may fail to parse, or parse as something it isn't
+    if (in.getCount() > maxBodySize) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+      return;
+    }
+    if (reply == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    final byte[] body = reply.toByteArray();
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private static MessageLite sayHello(CodedInputStream in) throws IOException {
+    final HelloRequest req = HelloRequest.parseFrom(in);
     final String greeting = "Hello " + req.getName();
-    final HelloReply resp = HelloReply.newBuilder().setMessage(greeting).build();
-    resp.writeTo(response.getOutputStream());
+    return HelloReply.newBuilder().setMessage(greeting).build();
+  }
+
+  @FunctionalInterface
+  private interface UnaryMethod {
+
+    MessageLite invoke(CodedInputStream in) throws IOException;
+  }
+
+  /**
+   * Reads a request body into a single buffer as it arrives, then invokes the method. A body with
+   * a {@code Content-Length}, which has already been checked against the maximum, gets a buffer of
+   * exactly that size; one without starts with a small buffer which doubles as data fills it, up to
+   * the maximum.
+   */
+  private static class BodyReader implements ReadListener {
+
+    private final UnaryMethod method;
+    private final int maxBodySize;
+    private final ServletInputStream in;
+    private final AsyncContext async;
+    private final HttpServletResponse response;
+    private byte[] buf;
+    private int len;
+    private boolean rejected;
+
+    private BodyReader(
+        UnaryMethod method,
+        int contentLength,
+        int maxBodySize,
+        ServletInputStream in,
+        AsyncContext async,
+        HttpServletResponse response) {
+      this.method = method;
+      this.maxBodySize = maxBodySize;
+      this.in = in;
+      this.async = async;
+      this.response = response;
+      this.buf = new byte[contentLength < 0 ? DEFAULT_BUFFER_SIZE : contentLength];
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+      while (!rejected && in.isReady() && !in.isFinished()) {
+        if (len == buf.length) {
+          if (len > maxBodySize) {
+            rejected = true;
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            async.complete();
+            return;
+          }
+          // leave room for one byte more than the maximum, so an oversized body fills the buffer
+          final long size = Math.max(DEFAULT_BUFFER_SIZE, buf.length * 2L);
+          buf = Arrays.copyOf(buf, (int) Math.min(size, maxBodySize + 1L));
+        }
+        final int n = in.read(buf, len, buf.length - len);
+        if (n < 0) {
+          return;
+        }
+        len += n;
+      }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+      if (rejected) {
+        return;
+      }
+
+      final MessageLite reply;
+      try {
+        reply = method.invoke(CodedInputStream.newInstance(ByteBuffer.wrap(buf, 0, len)));
+      } catch (InvalidProtocolBufferException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        async.complete();
+        return;
+      }
+
+      final byte[] body = reply.toByteArray();
+      final ServletOutputStream out = response.getOutputStream();
+      response.setContentLength(body.length);
+      out.setWriteListener(
+          new WriteListener() {
+            private boolean written;
+
+            @Override
+            public void onWritePossible() throws IOException {
+              if (!written) {
+                written = true;
+                out.write(body);
+              }
+              if (out.isReady()) {
+                async.complete();
+              }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+              LOGGER.warn("Error writing response", t);
+              async.complete();
+            }
+          });
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      LOGGER.warn("Error reading request", t);
+      async.complete();
+    }
   }
 
   @Command(name = "http", description = "Run a legacy HTTP/Protobuf HelloWorld service.")
@@ -97,9 +284,21 @@ class LegacyHttpServer {
     )
     private int threads = 100;
 
+    @Option(
+      name = "--async",
+      description = "read request bodies and write responses without blocking worker threads"
+    )
+    private boolean async = false;
+
+    @Option(
+      name = "--max-body-size",
+      description = "the maximum size of a request body, in bytes"
+    )
+    private int maxBodySize = 4 << 20;
+
     @Override
     public void run() {
-      final LegacyHttpServer server = new LegacyHttpServer(port, threads);
+      final LegacyHttpServer server = new LegacyHttpServer(port, threads, async, maxBodySize);
       try {
         server.start();
       } catch (Exception e) {
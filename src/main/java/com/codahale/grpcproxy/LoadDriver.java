@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.helloworld.GreeterGrpc;
+import com.codahale.grpcproxy.helloworld.HelloRequest;
+import com.codahale.grpcproxy.stats.BenchmarkResult;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Sends closed-loop load to a Greeter server for the benchmarks: each thread keeps a single call
+ * outstanding, and calls are only measured once a warmup period is over.
+ */
+class LoadDriver {
+
+  private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+  private final long warmup;
+  private final long duration;
+
+  LoadDriver(long warmup, long duration, TimeUnit unit) {
+    this.warmup = unit.toNanos(warmup);
+    this.duration = unit.toNanos(duration);
+  }
+
+  /** Sends the given request from the given number of threads, and measures the calls. */
+  BenchmarkResult drive(ManagedChannel channel, int concurrency, HelloRequest request)
+      throws InterruptedException {
+    final GreeterGrpc.GreeterBlockingStub stub = GreeterGrpc.newBlockingStub(channel);
+    final Recorder latency = new Recorder(MAX_LATENCY, 3);
+    final LongAdder errors = new LongAdder();
+    final long measureAt = System.nanoTime() + warmup;
+    final long stopAt = measureAt + duration;
+    final ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      threads.execute(
+          () -> {
+            long start;
+            while ((start = System.nanoTime()) - stopAt < 0) {
+              try {
+                stub.withDeadlineAfter(MAX_LATENCY, TimeUnit.MICROSECONDS).sayHello(request);
+                if (start - measureAt >= 0) {
+                  latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+              } catch (StatusRuntimeException e) {
+                if (start - measureAt >= 0) {
+                  errors.increment();
+                }
+              }
+            }
+          });
+    }
+    threads.shutdown();
+    threads.awaitTermination(duration + warmup + TimeUnit.MINUTES.toNanos(2), TimeUnit.NANOSECONDS);
+    return BenchmarkResult.create(latency.getIntervalHistogram(), errors.sum(), duration * 1e-9);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.admission.ClientIdentity;
+import com.codahale.grpcproxy.admission.RateLimiter;
+import com.codahale.grpcproxy.config.LocalMethodConfig;
+import com.codahale.grpcproxy.stats.LocalMethodSnapshot;
+import com.codahale.grpcproxy.stats.Recorder;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A method with an in-process implementation, which serves a configured percentage of its calls
+ * itself and leaves the rest to be proxied. Both kinds of call are timed from the moment they're
+ * dispatched until they're closed, so the latency saved by skipping the upstream can be measured.
+ *
+ * <p>Local calls are rate limited like proxied ones, but since they make no upstream calls they
+ * skip the fair queue, bulkheads, and byte budget.
+ */
+class LocalMethod<ReqT, RespT> {
+
+  private static final long MIN_DURATION = TimeUnit.MICROSECONDS.toMicros(10);
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  private final ServerMethodDefinition<ReqT, RespT> definition;
+  private final ClientIdentity clientIdentity;
+  private final RateLimiter rateLimiter;
+  private final Recorder local = newRecorder();
+  private final Recorder proxied = newRecorder();
+  @Nullable private volatile LocalMethodConfig config;
+
+  LocalMethod(
+      ServerMethodDefinition<ReqT, RespT> definition,
+      ClientIdentity clientIdentity,
+      RateLimiter rateLimiter) {
+    this.definition = definition;
+    this.clientIdentity = clientIdentity;
+    this.rateLimiter = rateLimiter;
+  }
+
+  String name() {
+    return definition.getMethodDescriptor().getFullMethodName();
+  }
+
+  void setConfig(@Nullable LocalMethodConfig config) {
+    this.config = config;
+  }
+
+  /** Returns whether the current call should be served locally. */
+  boolean sample() {
+    final LocalMethodConfig config = this.config;
+    return config != null
+        && config.enabled()
+        && ThreadLocalRandom.current().nextDouble(100) < config.percent();
+  }
+
+  /** Returns a definition which serves a call locally. */
+  ServerMethodDefinition<ReqT, RespT> local() {
+    final ServerCallHandler<ReqT, RespT> handler = definition.getServerCallHandler();
+    final ServerCallHandler<ReqT, RespT> limited =
+        (call, headers) -> {
+          if (!rateLimiter.tryAcquire(ClientIdentity.current(), name())) {
+            call.close(
+                Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded"), new Metadata());
+            return new ServerCall.Listener<ReqT>() {};
+          }
+          return handler.startCall(call, headers);
+        };
+    return definition.withServerCallHandler(
+        timed((call, headers) -> clientIdentity.interceptCall(call, headers, limited), local));
+  }
+
+  /** Wraps the handler of a call which is being proxied instead. */
+  <A, B> ServerCallHandler<A, B> proxied(ServerCallHandler<A, B> handler) {
+    return timed(handler, proxied);
+  }
+
+  private static <A, B> ServerCallHandler<A, B> timed(
+      ServerCallHandler<A, B> handler, Recorder recorder) {
+    final long start = System.nanoTime();
+    return (call, headers) ->
+        handler.startCall(
+            new SimpleForwardingServerCall<A, B>(call) {
+              @Override
+              public void close(Status status, Metadata trailers) {
+                if (!Warmup.isSynthetic()) {
+                  recorder.record(start);
+                }
+                super.close(status, trailers);
+              }
+            },
+            headers);
+  }
+
+  /** Returns the rollout percentage and the latency of local and proxied calls. */
+  LocalMethodSnapshot report() {
+    final LocalMethodConfig config = this.config;
+    final double percent = config == null || !config.enabled() ? 0 : config.percent();
+    return LocalMethodSnapshot.create(percent, local.interval(), proxied.interval());
+  }
+
+  private static Recorder newRecorder() {
+    return new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+  }
+}
@@ -14,40 +14,178 @@
 
 package com.codahale.grpcproxy;
 
+import com.codahale.grpcproxy.admission.Bulkhead;
+import com.codahale.grpcproxy.admission.ByteBudget;
+import com.codahale.grpcproxy.admission.ClientIdentity;
+import com.codahale.grpcproxy.admission.FairQueue;
+import com.codahale.grpcproxy.admission.RateLimiter;
+import com.codahale.grpcproxy.config.LocalMethodConfig;
+import com.codahale.grpcproxy.config.MethodCatalogConfig;
+import com.codahale.grpcproxy.config.ProxyConfig;
+import com.codahale.grpcproxy.routing.MethodCatalog;
+import com.codahale.grpcproxy.routing.Route;
+import com.codahale.grpcproxy.routing.RouteTable;
+import com.codahale.grpcproxy.routing.Shadow;
+import com.codahale.grpcproxy.routing.Upstream;
+import com.codahale.grpcproxy.stats.LocalMethodSnapshot;
+import com.codahale.grpcproxy.stats.MethodCatalogSnapshot;
 import com.codahale.grpcproxy.util.ByteArrayMarshaller;
+import com.codahale.grpcproxy.util.CallTimings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.grpc.BindableService;
 import io.grpc.HandlerRegistry;
 import io.grpc.MethodDescriptor;
 import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCallHandler;
 import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.grpc.StatusException;
 import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.annotation.Nullable;
-import okhttp3.ConnectionPool;
-import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-/** A handler registry which maps gRPC service methods to proxy listeners. */
+/**
+ * A handler registry which maps gRPC service methods to proxy listeners, or, for methods with a
+ * local implementation which are configured to be served locally, to that implementation.
+ */
 class ProxyHandlerRegistry extends HandlerRegistry {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProxyHandlerRegistry.class);
   private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
-  private final HttpUrl backend;
+  private final ClientIdentity clientIdentity;
+  private final FairQueue fairQueue;
+  private final RateLimiter rateLimiter;
+  private final ByteBudget byteBudget;
+  private final ImmutableMap<String, LocalMethod<?, ?>> localMethods;
   private final OkHttpClient client;
+  private volatile RouteTable routes;
+  @Nullable private volatile MethodCatalog catalog;
+
+  ProxyHandlerRegistry(
+      ProxyConfig config,
+      FairQueue fairQueue,
+      RateLimiter rateLimiter,
+      ByteBudget byteBudget,
+      List<BindableService> localServices) {
+    this.clientIdentity = new ClientIdentity();
+    this.fairQueue = fairQueue;
+    this.rateLimiter = rateLimiter;
+    this.byteBudget = byteBudget;
+    final ImmutableMap.Builder<String, LocalMethod<?, ?>> localMethods = ImmutableMap.builder();
+    for (BindableService service : localServices) {
+      for (ServerMethodDefinition<?, ?> method : service.bindService().getMethods()) {
+        final LocalMethod<?, ?> local = new LocalMethod<>(method, clientIdentity, rateLimiter);
+        localMethods.put(local.name(), local);
+      }
+    }
+    this.localMethods = localMethods.build();
+    this.client = new OkHttpClient();
+    this.routes = RouteTable.create(client, config.routes());
+    fairQueue.setWeights(config.clientWeights());
+    rateLimiter.setLimits(config.rateLimits());
+    setLocalMethods(config.localMethods());
+    setMethodCatalog(config.methodCatalog());
+  }
+
+  /** Swaps in a new configuration. Must only be called from a single thread. */
+  void update(ProxyConfig config) {
+    this.routes = routes.update(config.routes());
+    fairQueue.setWeights(config.clientWeights());
+    rateLimiter.setLimits(config.rateLimits());
+    setLocalMethods(config.localMethods());
+    setMethodCatalog(config.methodCatalog());
+  }
+
+  /**
+   * Closes the routes, along with their connection pools, bulkheads, shadows, and health checks,
+   * and the method catalog, for a registry which is no longer in use.
+   */
+  void close() {
+    this.routes = routes.update(ImmutableList.of());
+    setMethodCatalog(null);
+    client.connectionPool().evictAll();
+  }
+
+  // Keeps the current catalog if its configuration hasn't changed.
+  private void setMethodCatalog(@Nullable MethodCatalogConfig config) {
+    final MethodCatalog current = catalog;
+    if (current != null && current.config().equals(config)) {
+      return;
+    }
+    this.catalog = config == null ? null : new MethodCatalog(config, client);
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  private void setLocalMethods(Map<String, LocalMethodConfig> configs) {
+    for (String name : configs.keySet()) {
+      if (!localMethods.containsKey(name)) {
+        LOGGER.warn("No local implementation of {}, proxying it instead", name);
+      }
+    }
+    for (LocalMethod<?, ?> local : localMethods.values()) {
+      local.setConfig(configs.get(local.name()));
+    }
+  }
+
+  RouteTable routes() {
+    return routes;
+  }
 
-  ProxyHandlerRegistry(HttpUrl backend) {
-    this.backend = backend;
-    final ConnectionPool connectionPool = new ConnectionPool(100, 5, TimeUnit.MINUTES);
-    this.client = new OkHttpClient.Builder().connectionPool(connectionPool).build();
+  /** Returns the rollout and latency of each locally implemented method since the last report. */
+  Map<String, LocalMethodSnapshot> reportLocal() {
+    final Map<String, LocalMethodSnapshot> snapshots = new TreeMap<>();
+    for (LocalMethod<?, ?> local : localMethods.values()) {
+      snapshots.put(local.name(), local.report());
+    }
+    return snapshots;
+  }
+
+  /** Returns the size of the method catalog and the calls it turned away since the last report. */
+  @Nullable
+  MethodCatalogSnapshot reportCatalog() {
+    final MethodCatalog catalog = this.catalog;
+    return catalog == null ? null : catalog.report();
   }
 
   @Override
+  @Nullable
   public ServerMethodDefinition<?, ?> lookupMethod(String methodName, @Nullable String authority) {
+    // This is called for every call, so each one can be sampled for local dispatch.
+    final LocalMethod<?, ?> local = localMethods.get(methodName);
+    if (local != null && local.sample()) {
+      return local.local();
+    }
+
+    // Unknown methods are rejected with UNIMPLEMENTED before anything is sent upstream.
+    final MethodCatalog catalog = this.catalog;
+    if (local == null && catalog != null && !catalog.contains(methodName)) {
+      return null;
+    }
+
+    final Route route = routes.lookup(methodName);
+    if (route == null) {
+      return null;
+    }
+    final ServerCallHandler<byte[], byte[]> proxy =
+        ServerCalls.asyncUnaryCall(new ProxyUnaryMethod(route, methodName));
+    final ServerCallHandler<byte[], byte[]> handler = local == null ? proxy : local.proxied(proxy);
     return ServerMethodDefinition.create(
         MethodDescriptor.<byte[], byte[]>newBuilder()
             .setRequestMarshaller(new ByteArrayMarshaller())
@@ -55,33 +193,167 @@ class ProxyHandlerRegistry extends HandlerRegistry {
             .setType(MethodType.UNARY)
             .setFullMethodName(methodName)
             .build(),
-        ServerCalls.asyncUnaryCall(new ProxyUnaryMethod(backend, methodName)));
+        (call, headers) -> clientIdentity.interceptCall(call, headers, handler));
+  }
+
+  // Maps an upstream's HTTP error to a gRPC status, as gRPC clients do for HTTP responses.
+  private static Status status(int code) {
+    switch (code) {
+      case 400:
+        return Status.INTERNAL;
+      case 401:
+        return Status.UNAUTHENTICATED;
+      case 403:
+        return Status.PERMISSION_DENIED;
+      case 404:
+        return Status.UNIMPLEMENTED;
+      case 429:
+      case 502:
+      case 503:
+      case 504:
+        return Status.UNAVAILABLE;
+      default:
+        return Status.UNKNOWN;
+    }
   }
 
   /** Proxies a gRPC request to an HTTP backend. */
   private class ProxyUnaryMethod implements ServerCalls.UnaryMethod<byte[], byte[]> {
 
-    private final HttpUrl url;
+    private final Route route;
+    private final String methodName;
 
-    ProxyUnaryMethod(HttpUrl backend, String methodName) {
-      this.url = backend.newBuilder().addQueryParameter("method", methodName).build();
+    ProxyUnaryMethod(Route route, String methodName) {
+      this.route = route;
+      this.methodName = methodName;
     }
 
     @Override
     public void invoke(byte[] msg, StreamObserver<byte[]> responseObserver) {
+      final CallTimings timings = CallTimings.current();
+      if (timings != null) {
+        timings.arrived();
+      }
+
+      final String identity = ClientIdentity.current();
+      if (!rateLimiter.tryAcquire(identity, methodName)) {
+        responseObserver.onError(
+            Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded").asException());
+        return;
+      }
+
+      final ByteBudget.Reservation reservation;
+      try {
+        reservation = byteBudget.reserve(msg.length);
+      } catch (StatusException e) {
+        responseObserver.onError(e);
+        return;
+      }
+
+      final Bulkhead bulkhead = route.bulkhead();
+      if (bulkhead == null) {
+        admit(identity, msg, reservation, responseObserver);
+        return;
+      }
+
+      try {
+        bulkhead.execute(
+            () -> admit(identity, msg, reservation, responseObserver), responseObserver::onError);
+      } catch (StatusException e) {
+        reservation.close();
+        responseObserver.onError(e);
+      }
+    }
+
+    private void admit(
+        String identity,
+        byte[] msg,
+        ByteBudget.Reservation reservation,
+        StreamObserver<byte[]> responseObserver) {
+      try (ByteBudget.Reservation ignored = reservation;
+          FairQueue.Permit permit = fairQueue.acquire(identity)) {
+        final CallTimings timings = CallTimings.current();
+        if (timings != null) {
+          timings.admitted();
+        }
+        proxy(msg, responseObserver);
+      } catch (StatusException e) {
+        responseObserver.onError(e);
+      }
+    }
+
+    private void proxy(byte[] msg, StreamObserver<byte[]> responseObserver)
+        throws StatusException {
+      final Upstream upstream = route.upstream(msg);
       final RequestBody reqBody = RequestBody.create(OCTET_STREAM, msg);
-      final Request req = new Request.Builder().url(url).post(reqBody).build();
+      final Request req = new Request.Builder().url(upstream.url(methodName)).post(reqBody).build();
+      final long start = System.nanoTime();
+      byte[] response = null;
+      boolean success = false;
       try {
-        try (Response resp = client.newCall(req).execute()) {
+        try (Response resp = route.client().newCall(req).execute()) {
+          success = resp.isSuccessful();
+          if (!success) {
+            final String description = "Upstream returned " + resp.code();
+            responseObserver.onError(
+                status(resp.code()).withDescription(description).asException());
+            return;
+          }
           final ResponseBody respBody = resp.body();
           if (respBody != null) {
-            responseObserver.onNext(respBody.bytes());
+            response = respond(respBody, responseObserver);
           }
         }
         responseObserver.onCompleted();
       } catch (IOException e) {
         responseObserver.onError(e);
+      } finally {
+        final CallTimings timings = CallTimings.current();
+        if (timings != null) {
+          timings.upstream(start);
+        }
+        if (!Warmup.isSynthetic()) {
+          route.recorder().record(start);
+          upstream.record(start, success);
+          final Shadow shadow = route.shadow();
+          if (shadow != null) {
+            shadow.mirror(methodName, msg, response, byteBudget);
+          }
+        }
+      }
+    }
+
+    // Holds the response's size against the budget until the call closes, checking it before
+    // buffering the body if the upstream sent a Content-Length, or as it's read if not.
+    private byte[] respond(ResponseBody respBody, StreamObserver<byte[]> responseObserver)
+        throws IOException, StatusException {
+      final long length = respBody.contentLength();
+      final ByteBudget.Reservation reservation = byteBudget.reserve(Math.max(length, 0));
+      final boolean held = ByteBudget.holdUntilClosed(reservation);
+      try {
+        final byte[] body = length < 0 ? read(respBody, reservation) : respBody.bytes();
+        responseObserver.onNext(body);
+        return body;
+      } finally {
+        if (!held) {
+          reservation.close();
+        }
+      }
+    }
+
+    // Reads a body of unknown length, adding each chunk to the reservation before buffering it.
+    private byte[] read(ResponseBody respBody, ByteBudget.Reservation reservation)
+        throws IOException, StatusException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] chunk = new byte[8192];
+      try (InputStream in = respBody.byteStream()) {
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+          reservation.grow(n);
+          out.write(chunk, 0, n);
+        }
       }
+      return out.toByteArray();
     }
   }
 }
@@ -14,57 +14,138 @@
 
 package com.codahale.grpcproxy;
 
+import com.codahale.grpcproxy.admission.ByteBudget;
+import com.codahale.grpcproxy.admission.FairQueue;
+import com.codahale.grpcproxy.admission.RateLimiter;
+import com.codahale.grpcproxy.config.ConfigWatcher;
+import com.codahale.grpcproxy.config.ProxyConfig;
+import com.codahale.grpcproxy.stats.HistogramShipper;
+import com.codahale.grpcproxy.util.ConnectionTracker;
 import com.codahale.grpcproxy.util.Netty;
 import com.codahale.grpcproxy.util.StatsTracerFactory;
 import com.codahale.grpcproxy.util.TlsContext;
+import com.codahale.grpcproxy.util.TransportOptions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
 import io.airlift.airline.Command;
 import io.airlift.airline.Option;
+import io.grpc.BindableService;
 import io.grpc.Server;
 import io.grpc.netty.NettyServerBuilder;
 import io.netty.channel.EventLoopGroup;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import javax.net.ssl.SSLException;
-import okhttp3.HttpUrl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** A gRPC server which proxies requests to an HTTP/1.1 backend server. */
+/**
+ * A gRPC server which proxies requests to an HTTP/1.1 backend server, except for calls to methods
+ * which have been moved into the proxy itself.
+ */
 class ProxyRpcServer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ProxyRpcServer.class);
+  private static final long SHUTDOWN_GRACE = 30;
   private final EventLoopGroup bossEventLoopGroup;
   private final EventLoopGroup workerEventLoopGroup;
   private final Server server;
   private final StatsTracerFactory stats;
+  private final ConnectionTracker connections;
+  private final FairQueue fairQueue;
+  private final RateLimiter rateLimiter;
+  private final ByteBudget byteBudget;
+  private final ProxyHandlerRegistry registry;
+  @Nullable private final ConfigWatcher configWatcher;
+  @Nullable private final Warmup warmup;
 
-  private ProxyRpcServer(int port, TlsContext tls, HttpUrl backend) throws SSLException {
-    this.stats = new StatsTracerFactory();
+  /**
+   * @param tls the server's TLS context, or {@code null} to accept plaintext connections
+   * @param warmup the calls to make before listening, or {@code null} to listen right away
+   */
+  ProxyRpcServer(
+      int port,
+      @Nullable TlsContext tls,
+      ProxyConfig config,
+      @Nullable ConfigWatcher configWatcher,
+      StatsTracerFactory stats,
+      FairQueue fairQueue,
+      ByteBudget byteBudget,
+      List<BindableService> localServices,
+      TransportOptions transport,
+      @Nullable Warmup warmup)
+      throws SSLException {
+    this.stats = stats;
+    this.connections = new ConnectionTracker();
+    this.fairQueue = fairQueue;
+    this.rateLimiter = new RateLimiter();
+    this.byteBudget = byteBudget;
+    this.registry =
+        new ProxyHandlerRegistry(config, fairQueue, rateLimiter, byteBudget, localServices);
+    this.configWatcher = configWatcher;
+    this.warmup = warmup;
     this.bossEventLoopGroup = Netty.newBossEventLoopGroup();
     this.workerEventLoopGroup = Netty.newWorkerEventLoopGroup();
-    this.server =
+    final NettyServerBuilder builder =
         NettyServerBuilder.forPort(port)
             .bossEventLoopGroup(bossEventLoopGroup)
             .workerEventLoopGroup(workerEventLoopGroup)
             .channelType(Netty.serverChannelType())
             .addStreamTracerFactory(stats)
-            .sslContext(tls.toServerContext())
-            .fallbackHandlerRegistry(new ProxyHandlerRegistry(backend))
-            .build();
+            .addStreamTracerFactory(connections.streams())
+            .addStreamTracerFactory(byteBudget.streams())
+            .addTransportFilter(connections)
+            .fallbackHandlerRegistry(registry);
+    this.server = transport.configure(builder, tls).build();
   }
 
-  private void start() throws IOException {
+  void start() throws IOException {
+    if (warmup != null) {
+      warmup.run(registry);
+    }
+    stats.register("routes", () -> registry.routes().report());
+    stats.register("admission", fairQueue::reportQueue);
+    stats.register("clients", fairQueue::report);
+    stats.register("rate_limits", rateLimiter::report);
+    stats.register("memory", byteBudget::report);
+    stats.register("local_methods", registry::reportLocal);
+    stats.register("connections", connections::report);
+    stats.register("method_catalog", registry::reportCatalog);
     stats.start();
+    if (configWatcher != null) {
+      configWatcher.start(registry::update);
+    }
     server.start();
     LOGGER.info("Server started, listening on " + server.getPort());
     Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
   }
 
-  private void stop() {
+  void stop() {
+    if (configWatcher != null) {
+      configWatcher.stop();
+    }
     stats.stop();
     if (!server.isShutdown()) {
       server.shutdown();
     }
+    // let calls in flight finish before closing the routes they're using
+    try {
+      if (!server.awaitTermination(SHUTDOWN_GRACE, TimeUnit.SECONDS)) {
+        server.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      server.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    registry.close();
     bossEventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
     workerEventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
   }
@@ -88,6 +169,92 @@ class ProxyRpcServer {
     )
     private String upstream = "http://localhost:8080/grpc";
 
+    @Option(
+      name = "--config",
+      description = "the path of a JSON routing config, reloaded on change (overrides --upstream)"
+    )
+    private String configPath;
+
+    @Option(
+      name = "--max-concurrency",
+      description = "the maximum number of concurrent upstream calls"
+    )
+    private int maxConcurrency = 1_000;
+
+    @Option(
+      name = "--max-queue-depth",
+      description = "the maximum number of calls queued for each client"
+    )
+    private int maxQueueDepth = 1_000;
+
+    @Option(
+      name = "--queue-target",
+      description = "the acceptable standing queue delay, in milliseconds"
+    )
+    private long queueTarget = 5;
+
+    @Option(
+      name = "--queue-interval",
+      description = "the time queue delay must exceed the target before shedding, in milliseconds"
+    )
+    private long queueInterval = 100;
+
+    @Option(
+      name = "--max-inflight-bytes",
+      description = "the maximum size of in-flight messages (default: a quarter of the max heap)"
+    )
+    private long maxInflightBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    @Option(
+      name = "--collector",
+      description = "the http:// or udp://host:port URI of a collector to ship histograms to"
+    )
+    private String collector;
+
+    @Option(
+      name = "--instance",
+      description = "the name of this instance, as reported to the collector (default: host:port)"
+    )
+    private String instance;
+
+    @Option(
+      name = "--stats-methods",
+      description = "a comma-separated list of methods whose stats are always reported separately"
+    )
+    private String statsMethods = "";
+
+    @Option(
+      name = "--max-stats-methods",
+      description = "the number of other, most frequently called, methods to report separately"
+    )
+    private int maxStatsMethods = 100;
+
+    @Option(
+      name = "--warmup-calls",
+      description = "the number of synthetic calls to make before listening (default: none)"
+    )
+    private int warmupCalls = 0;
+
+    @Option(
+      name = "--warmup-concurrency",
+      description = "the number of concurrent synthetic calls to make"
+    )
+    private int warmupConcurrency = 8;
+
+    @Option(
+      name = "--warmup-methods",
+      description = "a comma-separated list of methods to warm up with (default: a local stub)"
+    )
+    private String warmupMethods = "";
+
+    @Option(
+      name = "--warmup-body",
+      description = "the base64-encoded request to send to each warm-up method"
+    )
+    private String warmupBody = "";
+
+    @Inject private TransportOptions transport = new TransportOptions();
+
     @Option(name = "--ca-certs")
     private String trustedCertsPath = "cert.crt";
 
@@ -101,12 +268,48 @@ class ProxyRpcServer {
     public void run() {
       try {
         final TlsContext tls = new TlsContext(trustedCertsPath, certPath, keyPath);
-        final ProxyRpcServer server = new ProxyRpcServer(port, tls, HttpUrl.parse(upstream));
+        final ConfigWatcher watcher =
+            configPath == null ? null : new ConfigWatcher(Paths.get(configPath));
+        final ProxyConfig config =
+            watcher == null ? ProxyConfig.forUpstream(upstream) : watcher.load();
+        final FairQueue fairQueue =
+            new FairQueue(
+                maxConcurrency, maxQueueDepth, queueTarget, queueInterval, TimeUnit.MILLISECONDS);
+        final StatsTracerFactory stats =
+            new StatsTracerFactory(
+                ImmutableSet.copyOf(
+                    Splitter.on(',').trimResults().omitEmptyStrings().split(statsMethods)),
+                maxStatsMethods);
+        if (collector != null) {
+          final String name =
+              instance == null ? InetAddress.getLocalHost().getHostName() + ":" + port : instance;
+          stats.ship(new HistogramShipper(name, URI.create(collector)));
+        }
+        final ProxyRpcServer server =
+            new ProxyRpcServer(
+                port,
+                tls,
+                config,
+                watcher,
+                stats,
+                fairQueue,
+                new ByteBudget(maxInflightBytes),
+                ImmutableList.of(new GreeterService()),
+                transport,
+                warmupCalls > 0 ? warmup() : null);
         server.start();
         server.blockUntilShutdown();
       } catch (IOException | InterruptedException e) {
         LOGGER.error("Error running command", e);
       }
     }
+
+    private Warmup warmup() {
+      return new Warmup(
+          warmupCalls,
+          warmupConcurrency,
+          Splitter.on(',').trimResults().omitEmptyStrings().splitToList(warmupMethods),
+          BaseEncoding.base64().decode(warmupBody));
+    }
   }
 }
@@ -43,7 +43,17 @@ public class Runner {
         .withCommand(Help.class)
         .withCommand(ProxyRpcServer.Cmd.class)
         .withCommand(LegacyHttpServer.Cmd.class)
-        .withCommand(HelloWorldServer.Cmd.class);
+        .withCommand(HelloWorldServer.Cmd.class)
+        .withCommand(HistogramCollector.Cmd.class);
+
+    builder
+        .withGroup("bench")
+        .withDescription("Run a benchmark")
+        .withDefaultCommand(Help.class)
+        .withCommand(Help.class)
+        .withCommand(FieldExtractionBenchmark.Cmd.class)
+        .withCommand(EndToEndBenchmark.Cmd.class)
+        .withCommand(FlowControlBenchmark.Cmd.class);
 
     return builder.build();
   }
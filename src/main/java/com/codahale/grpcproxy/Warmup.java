@@ -0,0 +1,260 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy;
+
+import com.codahale.grpcproxy.admission.ByteBudget;
+import com.codahale.grpcproxy.admission.FairQueue;
+import com.codahale.grpcproxy.admission.RateLimiter;
+import com.codahale.grpcproxy.config.ProxyConfig;
+import com.codahale.grpcproxy.stats.BenchmarkResult;
+import com.codahale.grpcproxy.stats.WarmupSnapshot;
+import com.codahale.grpcproxy.util.ByteArrayMarshaller;
+import com.codahale.grpcproxy.util.StatsTracerFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import io.grpc.CallOptions;
+import io.grpc.Context;
+import io.grpc.HandlerRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Server;
+import io.grpc.ServerStreamTracer;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.logstash.logback.marker.Markers;
+import org.HdrHistogram.Recorder;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends synthetic calls through the proxy before it starts listening, so that the JIT has compiled
+ * the handler registry, marshallers, HTTP client, and stats paths by the time real calls arrive.
+ *
+ * <p>Calls are made over an in-process transport, in rounds whose latencies are reported so it can
+ * be seen whether they'd converged. If given methods to call, they're sent through the proxy's own
+ * routes to the real upstreams, and go through its rate limits and admission queue like any other
+ * calls; they're left out of route, upstream, and local method stats, though, so that errors
+ * while warming up can't eject an upstream, and they aren't copied to shadows. Otherwise they're
+ * sent, through a separate handler registry, to a local stub upstream which echoes each request
+ * back. Either way, they're left out of the server's call stats.
+ */
+class Warmup {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Warmup.class);
+  private static final String STUB_METHOD = "warmup.Stub/Echo";
+  private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(1);
+  private static final int ROUNDS = 10;
+  private static final Context.Key<Boolean> SYNTHETIC = Context.keyWithDefault("warmup", false);
+  private static final ServerStreamTracer.Factory MARKER =
+      new ServerStreamTracer.Factory() {
+        @Override
+        public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+          return new ServerStreamTracer() {
+            @Override
+            public Context filterContext(Context context) {
+              return context.withValue(SYNTHETIC, true);
+            }
+          };
+        }
+      };
+
+  private final int calls;
+  private final int concurrency;
+  private final List<String> methods;
+  private final byte[] body;
+
+  /**
+   * @param calls the total number of calls to make
+   * @param concurrency the number of calls to make at once
+   * @param methods the methods to call, or an empty list to call a local stub
+   * @param body the request to send to each method
+   */
+  Warmup(int calls, int concurrency, List<String> methods, byte[] body) {
+    this.calls = calls;
+    this.concurrency = concurrency;
+    this.methods = ImmutableList.copyOf(methods);
+    this.body = body.clone();
+  }
+
+  /** Returns whether the current call is one made to warm up, which shouldn't be recorded. */
+  static boolean isSynthetic() {
+    return SYNTHETIC.get();
+  }
+
+  /** Warms up the given registry, or a copy of it pointed at a stub, and reports how it went. */
+  WarmupSnapshot run(ProxyHandlerRegistry registry) throws IOException {
+    if (!methods.isEmpty()) {
+      return run(registry, methods);
+    }
+
+    final org.eclipse.jetty.server.Server stub = echoServer();
+    ProxyHandlerRegistry stubRegistry = null;
+    try {
+      stub.start();
+      final int port = ((ServerConnector) stub.getConnectors()[0]).getLocalPort();
+      stubRegistry =
+          new ProxyHandlerRegistry(
+              ProxyConfig.forUpstream("http://localhost:" + port + "/"),
+              new FairQueue(concurrency, calls, 5, 100, TimeUnit.MILLISECONDS),
+              new RateLimiter(),
+              new ByteBudget(Runtime.getRuntime().maxMemory() / 4),
+              ImmutableList.of());
+      return run(stubRegistry, ImmutableList.of(STUB_METHOD));
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Error starting warm-up stub", e);
+    } finally {
+      if (stubRegistry != null) {
+        stubRegistry.close();
+      }
+      try {
+        stub.stop();
+      } catch (Exception e) {
+        LOGGER.warn("Error stopping warm-up stub", e);
+      }
+    }
+  }
+
+  private WarmupSnapshot run(HandlerRegistry registry, List<String> targets) throws IOException {
+    final String name = "warmup-" + System.identityHashCode(this);
+    final Server server =
+        InProcessServerBuilder.forName(name)
+            .fallbackHandlerRegistry(registry)
+            .addStreamTracerFactory(new StatsTracerFactory())
+            .addStreamTracerFactory(MARKER)
+            .build()
+            .start();
+    final ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+    final ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+    final long start = System.nanoTime();
+    try {
+      final List<MethodDescriptor<byte[], byte[]>> descriptors = new ArrayList<>();
+      for (String method : targets) {
+        descriptors.add(
+            MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setRequestMarshaller(new ByteArrayMarshaller())
+                .setResponseMarshaller(new ByteArrayMarshaller())
+                .setType(MethodType.UNARY)
+                .setFullMethodName(method)
+                .build());
+      }
+
+      final List<BenchmarkResult> rounds = new ArrayList<>();
+      long errors = 0;
+      for (int i = 0; i < ROUNDS; i++) {
+        final BenchmarkResult round =
+            round(channel, descriptors, threads, calls / ROUNDS + (i < calls % ROUNDS ? 1 : 0));
+        errors += round.errors();
+        rounds.add(round);
+      }
+
+      final WarmupSnapshot snapshot =
+          WarmupSnapshot.create((System.nanoTime() - start) * 1e-9, calls, errors, rounds);
+      LOGGER.info(
+          Markers.append("warmup", snapshot),
+          "Warmed up with {} calls in {}s, p99 went from {}s to {}s",
+          calls,
+          snapshot.duration(),
+          rounds.get(0).p99(),
+          rounds.get(rounds.size() - 1).p99());
+      return snapshot;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while warming up", e);
+    } finally {
+      threads.shutdownNow();
+      channel.shutdownNow();
+      server.shutdownNow();
+    }
+  }
+
+  // Makes the given number of calls, cycling through the methods, from every thread at once.
+  private BenchmarkResult round(
+      ManagedChannel channel,
+      List<MethodDescriptor<byte[], byte[]>> descriptors,
+      ExecutorService threads,
+      int n)
+      throws InterruptedException {
+    final Recorder latency = new Recorder(MAX_LATENCY, 3);
+    final LongAdder errors = new LongAdder();
+    final AtomicInteger next = new AtomicInteger();
+    final List<Callable<Void>> tasks = new ArrayList<>();
+    for (int i = 0; i < concurrency; i++) {
+      tasks.add(
+          () -> {
+            int call;
+            while ((call = next.getAndIncrement()) < n) {
+              final long start = System.nanoTime();
+              try {
+                ClientCalls.blockingUnaryCall(
+                    channel, descriptors.get(call % descriptors.size()), CallOptions.DEFAULT, body);
+              } catch (StatusRuntimeException e) {
+                errors.increment();
+              }
+              latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+            return null;
+          });
+    }
+    final long start = System.nanoTime();
+    threads.invokeAll(tasks);
+    return BenchmarkResult.create(
+        latency.getIntervalHistogram(), errors.sum(), (System.nanoTime() - start) * 1e-9);
+  }
+
+  // An upstream which responds to every request with the request's body.
+  private static org.eclipse.jetty.server.Server echoServer() {
+    final org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server();
+    server.setHandler(
+        new AbstractHandler() {
+          @Override
+          public void handle(
+              String target,
+              Request baseRequest,
+              HttpServletRequest request,
+              HttpServletResponse response)
+              throws IOException {
+            baseRequest.setHandled(true);
+            final byte[] body = ByteStreams.toByteArray(request.getInputStream());
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+          }
+        });
+    final ServerConnector connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    server.addConnector(connector);
+    return server;
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.admission;
+
+import com.codahale.grpcproxy.config.BulkheadConfig;
+import com.codahale.grpcproxy.stats.BulkheadSnapshot;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.QueueSnapshot;
+import com.codahale.grpcproxy.stats.Recorder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Context;
+import io.grpc.Context.CancellationListener;
+import io.grpc.Contexts;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent calls for a single route, so that a slow upstream method can't
+ * tie up the threads and connections needed by others.
+ */
+public abstract class Bulkhead {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Bulkhead.class);
+  private static final long MIN_DURATION = 1;
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  final int maxConcurrency;
+  final IntervalAdder rejected = new IntervalAdder();
+  final Recorder waitTime =
+      new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+
+  private Bulkhead(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  public static Bulkhead create(String name, BulkheadConfig config) {
+    if (config.isolation() == BulkheadConfig.Isolation.THREAD_POOL) {
+      return new ThreadPoolBulkhead(name, config.maxConcurrency(), config.maxQueueDepth());
+    }
+    return new SemaphoreBulkhead(config.maxConcurrency(), config.maxQueueDepth());
+  }
+
+  /**
+   * Runs the given task once there's room for it in the bulkhead, either on the current thread or
+   * on the bulkhead's own.
+   *
+   * @param onFailure called with the status of anything the task throws on the bulkhead's own
+   *     thread, where there's no caller to throw it to
+   * @throws StatusException with {@code RESOURCE_EXHAUSTED} if the bulkhead's queue is full, with
+   *     {@code UNAVAILABLE} if it's been closed, or with the status of the current context if it's
+   *     cancelled while waiting; the task is not run
+   */
+  public abstract void execute(Runnable task, Consumer<StatusException> onFailure)
+      throws StatusException;
+
+  /** Returns the utilization, queue depth, rejections, and wait times since the last report. */
+  public BulkheadSnapshot report() {
+    final int inFlight = inFlight();
+    return BulkheadSnapshot.create(
+        (double) inFlight / maxConcurrency,
+        QueueSnapshot.create(inFlight, depth(), rejected.interval(), waitTime.interval()));
+  }
+
+  public void close() {}
+
+  abstract int inFlight();
+
+  abstract int depth();
+
+  StatusException rejection() {
+    rejected.add(1);
+    return Status.RESOURCE_EXHAUSTED.withDescription("Bulkhead is full").asException();
+  }
+
+  /** Runs calls on the calling thread, making excess callers wait in line. */
+  private static class SemaphoreBulkhead extends Bulkhead {
+
+    private final int maxQueueDepth;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private int inFlight;
+    private int depth;
+
+    private SemaphoreBulkhead(int maxConcurrency, int maxQueueDepth) {
+      super(maxConcurrency);
+      this.maxQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public void execute(Runnable task, Consumer<StatusException> onFailure)
+        throws StatusException {
+      acquire();
+      try {
+        task.run();
+      } finally {
+        release();
+      }
+    }
+
+    private void acquire() throws StatusException {
+      final long start = System.nanoTime();
+      final Context context = Context.current();
+      lock.lock();
+      try {
+        if (inFlight < maxConcurrency && depth == 0) {
+          inFlight++;
+          waitTime.record(start);
+          return;
+        }
+        if (depth >= maxQueueDepth) {
+          throw rejection();
+        }
+
+        depth++;
+        final CancellationListener listener = c -> signalAll();
+        context.addListener(listener, MoreExecutors.directExecutor());
+        try {
+          while (inFlight >= maxConcurrency) {
+            if (context.isCancelled()) {
+              available.signal(); // pass on any wakeup meant for this caller
+              final Status status = Contexts.statusFromCancelled(context);
+              throw (status == null ? Status.CANCELLED : status).asException();
+            }
+            available.awaitUninterruptibly();
+          }
+          inFlight++;
+          waitTime.record(start);
+        } finally {
+          depth--;
+          context.removeListener(listener);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void release() {
+      lock.lock();
+      try {
+        inFlight--;
+        available.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void signalAll() {
+      lock.lock();
+      try {
+        available.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    int inFlight() {
+      lock.lock();
+      try {
+        return inFlight;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    int depth() {
+      lock.lock();
+      try {
+        return depth;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** Hands calls off to a pool of threads, queueing excess calls in front of it. */
+  private static class ThreadPoolBulkhead extends Bulkhead {
+
+    private final ThreadPoolExecutor executor;
+
+    private ThreadPoolBulkhead(String name, int maxConcurrency, int maxQueueDepth) {
+      super(maxConcurrency);
+      final BlockingQueue<Runnable> queue =
+          maxQueueDepth == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(maxQueueDepth);
+      this.executor =
+          new ThreadPoolExecutor(
+              maxConcurrency,
+              maxConcurrency,
+              1,
+              TimeUnit.MINUTES,
+              queue,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("bulkhead-" + name.replace('%', '_') + "-%d")
+                  .build());
+      executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable task, Consumer<StatusException> onFailure)
+        throws StatusException {
+      final long start = System.nanoTime();
+      final Runnable wrapped = Context.current().wrap(task);
+      try {
+        executor.execute(
+            () -> {
+              waitTime.record(start);
+              try {
+                wrapped.run();
+              } catch (Throwable t) {
+                LOGGER.warn("Error running call", t);
+                onFailure.accept(Status.fromThrowable(t).asException());
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        // calls can still be routed here for a moment after a reload closes the bulkhead
+        if (executor.isShutdown()) {
+          throw Status.UNAVAILABLE.withDescription("Bulkhead is closed").asException();
+        }
+        throw rejection();
+      }
+    }
+
+    @Override
+    public void close() {
+      executor.shutdown();
+    }
+
+    @Override
+    int inFlight() {
+      return executor.getActiveCount();
+    }
+
+    @Override
+    int depth() {
+      return executor.getQueue().size();
+    }
+  }
+}
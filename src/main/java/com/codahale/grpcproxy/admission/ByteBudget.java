@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.admission;
+
+import com.codahale.grpcproxy.stats.BudgetSnapshot;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the total size of the request and response messages buffered on the heap by in-flight
+ * calls, so that a burst of large messages fails fast instead of exhausting memory.
+ *
+ * <p>Callers which don't fit are rejected rather than made to wait: by the time a message's size
+ * is known it's already been buffered, so waiting would hold on to the memory without doing
+ * anything with it.
+ *
+ * <p>A response is still on the heap after it's been handed to gRPC, in the transport's outbound
+ * buffers, until the client has read it. With {@link #streams()} installed as a stream tracer
+ * factory, reservations can be held until their call's stream closes instead.
+ */
+public class ByteBudget {
+
+  private static final Context.Key<Holds> HOLDS = Context.key("byte-budget-holds");
+
+  private final long maxBytes;
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong peak = new AtomicLong();
+  private final IntervalAdder rejected = new IntervalAdder();
+  private final ServerStreamTracer.Factory streams =
+      new ServerStreamTracer.Factory() {
+        @Override
+        public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+          return new StreamTracer();
+        }
+      };
+
+  public ByteBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Reserves the given number of bytes, returning a reservation which must be closed when they're
+   * no longer held.
+   *
+   * @throws StatusException with {@code RESOURCE_EXHAUSTED} if the budget can't fit them
+   */
+  public Reservation reserve(long bytes) throws StatusException {
+    take(bytes);
+    return new Reservation(bytes);
+  }
+
+  private void take(long bytes) throws StatusException {
+    long current;
+    long next;
+    do {
+      current = used.get();
+      next = current + bytes;
+      if (next > maxBytes) {
+        rejected.add(1);
+        throw Status.RESOURCE_EXHAUSTED.withDescription("Too many bytes in flight").asException();
+      }
+    } while (!used.compareAndSet(current, next));
+    peak.accumulateAndGet(next, Math::max);
+  }
+
+  /** Returns the stream tracer factory which releases held reservations as calls close. */
+  public ServerStreamTracer.Factory streams() {
+    return streams;
+  }
+
+  /**
+   * Holds the given reservation until the current call's stream closes, returning {@code false} if
+   * the call isn't traced by {@link #streams()}, in which case the caller must close it.
+   */
+  public static boolean holdUntilClosed(Reservation reservation) {
+    final Holds holds = HOLDS.get();
+    return holds != null && holds.add(reservation);
+  }
+
+  /** Returns the bytes in use now and at peak, and rejections since the last report. */
+  public BudgetSnapshot report() {
+    final long current = used.get();
+    return BudgetSnapshot.create(maxBytes, current, peak.getAndSet(current), rejected.interval());
+  }
+
+  /**
+   * A number of bytes held against the budget, which must be closed when they're released. Closing
+   * it more than once has no further effect.
+   */
+  public class Reservation implements AutoCloseable {
+
+    private long bytes;
+    private boolean closed;
+
+    private Reservation(long bytes) {
+      this.bytes = bytes;
+    }
+
+    /**
+     * Adds the given number of bytes to the reservation. Once it's closed, nothing is added.
+     *
+     * @throws StatusException with {@code RESOURCE_EXHAUSTED} if the budget can't fit them
+     */
+    public synchronized void grow(long more) throws StatusException {
+      if (!closed) {
+        take(more);
+        bytes += more;
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        used.addAndGet(-bytes);
+      }
+    }
+  }
+
+  // The reservations held by a call, which are closed along with its stream. Those added after
+  // then are closed right away.
+  private static class Holds {
+
+    private final List<Reservation> reservations = new ArrayList<>();
+    private boolean closed;
+
+    private synchronized boolean add(Reservation reservation) {
+      if (closed) {
+        reservation.close();
+      } else {
+        reservations.add(reservation);
+      }
+      return true;
+    }
+
+    private synchronized void close() {
+      closed = true;
+      reservations.forEach(Reservation::close);
+      reservations.clear();
+    }
+  }
+
+  private static class StreamTracer extends ServerStreamTracer {
+
+    private final Holds holds = new Holds();
+
+    @Override
+    public Context filterContext(Context context) {
+      return context.withValue(HOLDS, holds);
+    }
+
+    @Override
+    public void streamClosed(Status status) {
+      holds.close();
+    }
+  }
+}
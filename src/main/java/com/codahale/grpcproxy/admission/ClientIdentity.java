@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.admission;
+
+import io.grpc.Attributes;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCall.Listener;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * A server interceptor which identifies callers by the subject of their TLS client certificate
+ * (e.g. {@code CN=client,O=Example}) and makes it available to the rest of the call via {@link
+ * #current()}.
+ */
+public class ClientIdentity implements ServerInterceptor {
+
+  public static final String ANONYMOUS = "anonymous";
+  private static final Context.Key<String> KEY = Context.key("client-identity");
+
+  /** Returns the identity of the caller of the current call. */
+  public static String current() {
+    final String identity = KEY.get();
+    return identity == null ? ANONYMOUS : identity;
+  }
+
+  @Override
+  public <ReqT, RespT> Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    final Context context = Context.current().withValue(KEY, identify(call.getAttributes()));
+    return Contexts.interceptCall(context, call, headers, next);
+  }
+
+  private static String identify(Attributes attributes) {
+    final SSLSession session = attributes.get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+    if (session == null) {
+      return ANONYMOUS;
+    }
+    try {
+      return session.getPeerPrincipal().getName();
+    } catch (SSLPeerUnverifiedException e) {
+      return ANONYMOUS;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.admission;
+
+import com.codahale.grpcproxy.stats.AdmissionSnapshot;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.QueueSnapshot;
+import com.codahale.grpcproxy.stats.Recorder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Context;
+import io.grpc.Context.CancellationListener;
+import io.grpc.Contexts;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent upstream calls, queueing excess calls per client identity and
+ * admitting them with start-time fair queueing.
+ *
+ * <p>A client's next queued call is tagged with a virtual start time of {@code max(V, F)}, where
+ * {@code V} is the start tag of the call most recently admitted and {@code F} is the finish tag of
+ * the client's previous call; its finish tag is its start tag plus {@code 1/weight}. The client
+ * with the lowest start tag goes next, so backlogged clients share the concurrency limit in
+ * proportion to their weights no matter how many calls each has queued.
+ *
+ * <p>Each client's queue is also managed for delay, in the manner of FQ-CoDel. If every call of a
+ * client's admitted over an interval has waited longer than the target delay, that client is
+ * considered overloaded: its calls which have waited longer than the target are failed with {@code
+ * UNAVAILABLE} instead of being admitted, and the rest are admitted newest-first, since the oldest
+ * are the likeliest to have been given up on. Otherwise, calls which have waited longer than the
+ * interval are failed. Clients whose calls keep up with the queue are unaffected.
+ */
+public class FairQueue {
+
+  private static final long MIN_DURATION = 1;
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  private final int maxConcurrency;
+  private final int maxQueueDepth;
+  private final long target;
+  private final long interval;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final PriorityQueue<Flow> backlog =
+      new PriorityQueue<>(Comparator.comparingDouble(f -> f.startTag));
+  private final Map<String, Flow> flows = new HashMap<>();
+  private final IntervalAdder dropped = new IntervalAdder();
+  private final Recorder sojournTime = newRecorder();
+  private volatile Map<String, Integer> weights = ImmutableMap.of();
+  private double virtualTime;
+  private int inFlight;
+  private int depth;
+
+  /**
+   * @param maxConcurrency the maximum number of calls admitted at once
+   * @param maxQueueDepth the maximum number of calls queued for any one client
+   * @param target the acceptable standing queue delay
+   * @param interval the period over which queue delay must exceed the target to be overloaded
+   * @param unit the unit of {@code target} and {@code interval}
+   */
+  public FairQueue(
+      int maxConcurrency, int maxQueueDepth, long target, long interval, TimeUnit unit) {
+    this.maxConcurrency = maxConcurrency;
+    this.maxQueueDepth = maxQueueDepth;
+    this.target = unit.toNanos(target);
+    this.interval = unit.toNanos(interval);
+  }
+
+  /** Replaces the client weights. Clients without a weight have a weight of 1. */
+  public void setWeights(Map<String, Integer> weights) {
+    this.weights = ImmutableMap.copyOf(weights);
+  }
+
+  /**
+   * Waits for the given client's turn, returning a permit which must be closed when the call is
+   * complete.
+   *
+   * @throws StatusException with {@code RESOURCE_EXHAUSTED} if the client's queue is full, with
+   *     {@code UNAVAILABLE} if the call waited too long, or with the status of the current context
+   *     if it's cancelled or its deadline passes while waiting
+   */
+  public Permit acquire(String identity) throws StatusException {
+    final long start = System.nanoTime();
+    final Context context = Context.current();
+    final Flow flow;
+    final Waiter waiter;
+    lock.lock();
+    try {
+      flow = flows.computeIfAbsent(identity, Flow::new);
+      if (inFlight < maxConcurrency && depth == 0) {
+        final double startTag = Math.max(virtualTime, flow.finishTag);
+        flow.finishTag = startTag + 1.0 / weight(identity);
+        virtualTime = startTag;
+        inFlight++;
+        flow.inFlight++;
+        waiter = null;
+      } else if (flow.waiters.size() >= maxQueueDepth) {
+        flow.rejected.add(1);
+        throw Status.RESOURCE_EXHAUSTED
+            .withDescription("Too many queued calls for " + identity)
+            .asException();
+      } else {
+        waiter = new Waiter(flow, start, lock.newCondition());
+        if (flow.waiters.isEmpty()) {
+          flow.startTag = Math.max(virtualTime, flow.finishTag);
+          backlog.add(flow);
+        }
+        flow.waiters.add(waiter);
+        depth++;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (waiter != null) {
+      await(waiter, context);
+    }
+
+    flow.waitTime.record(start);
+    return new Permit(flow);
+  }
+
+  private void await(Waiter waiter, Context context) throws StatusException {
+    final CancellationListener listener = c -> signal(waiter);
+    context.addListener(listener, MoreExecutors.directExecutor());
+    try {
+      lock.lock();
+      try {
+        while (waiter.state == Waiter.QUEUED) {
+          if (context.isCancelled()) {
+            remove(waiter);
+            final Status status = Contexts.statusFromCancelled(context);
+            throw (status == null ? Status.CANCELLED : status).asException();
+          }
+          waiter.condition.awaitUninterruptibly();
+        }
+        if (waiter.state == Waiter.DROPPED) {
+          throw Status.UNAVAILABLE.withDescription("Queue delay exceeded").asException();
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      context.removeListener(listener);
+    }
+  }
+
+  private void signal(Waiter waiter) {
+    lock.lock();
+    try {
+      waiter.condition.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void remove(Waiter waiter) {
+    final Flow flow = waiter.flow;
+    flow.waiters.remove(waiter);
+    depth--;
+    if (flow.waiters.isEmpty()) {
+      backlog.remove(flow);
+      idle(flow);
+    }
+  }
+
+  private void release(Flow released) {
+    lock.lock();
+    try {
+      inFlight--;
+      released.inFlight--;
+      final long now = System.nanoTime();
+      while (inFlight < maxConcurrency && !backlog.isEmpty()) {
+        final Flow flow = backlog.poll();
+        updateOverload(flow, now);
+        shed(flow, now);
+        if (flow.waiters.isEmpty()) {
+          idle(flow);
+          continue;
+        }
+
+        final Waiter next = flow.overloaded ? flow.waiters.pollLast() : flow.waiters.pollFirst();
+        depth--;
+        sojournTime.record(next.enqueuedAt);
+        virtualTime = flow.startTag;
+        flow.finishTag = flow.startTag + 1.0 / weight(flow.identity);
+        if (flow.waiters.isEmpty()) {
+          flow.firstAboveTime = 0;
+          flow.overloaded = false;
+        } else {
+          flow.startTag = flow.finishTag;
+          backlog.add(flow);
+        }
+
+        next.state = Waiter.ADMITTED;
+        next.condition.signal();
+        flow.inFlight++;
+        inFlight++;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // CoDel's standing delay is that of the oldest queued call, which stays put when serving LIFO.
+  private void updateOverload(Flow flow, long now) {
+    final long delay = now - flow.waiters.peekFirst().enqueuedAt;
+    if (delay < target) {
+      flow.firstAboveTime = 0;
+      flow.overloaded = false;
+    } else if (flow.firstAboveTime == 0) {
+      flow.firstAboveTime = now + interval;
+    } else if (now - flow.firstAboveTime >= 0) {
+      flow.overloaded = true;
+    }
+  }
+
+  // Fails the client's calls which have waited longer than the target, or the interval if the
+  // client isn't overloaded.
+  private void shed(Flow flow, long now) {
+    final long limit = flow.overloaded ? target : interval;
+    Waiter oldest;
+    while ((oldest = flow.waiters.peekFirst()) != null && now - oldest.enqueuedAt > limit) {
+      flow.waiters.pollFirst();
+      depth--;
+      sojournTime.record(oldest.enqueuedAt);
+      dropped.add(1);
+      oldest.state = Waiter.DROPPED;
+      oldest.condition.signal();
+    }
+  }
+
+  private void idle(Flow flow) {
+    flow.finishTag = flow.startTag;
+    flow.firstAboveTime = 0;
+    flow.overloaded = false;
+  }
+
+  private int weight(String identity) {
+    final Integer weight = weights.get(identity);
+    return weight == null ? 1 : weight;
+  }
+
+  /**
+   * Returns the in-flight calls, queue depth, rejections, and wait times of each client since the
+   * last report. Idle clients are forgotten afterwards.
+   */
+  public Map<String, QueueSnapshot> report() {
+    final Map<String, QueueSnapshot> snapshots = new TreeMap<>();
+    lock.lock();
+    try {
+      final Iterator<Map.Entry<String, Flow>> entries = flows.entrySet().iterator();
+      while (entries.hasNext()) {
+        final Map.Entry<String, Flow> entry = entries.next();
+        final Flow flow = entry.getValue();
+        snapshots.put(
+            entry.getKey(),
+            QueueSnapshot.create(
+                flow.inFlight,
+                flow.waiters.size(),
+                flow.rejected.interval(),
+                flow.waitTime.interval()));
+        if (flow.inFlight == 0 && flow.waiters.isEmpty()) {
+          entries.remove();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return snapshots;
+  }
+
+  /**
+   * Returns the overall in-flight calls and queue depth, the number of overloaded clients, and the
+   * number of calls dropped and the sojourn times of queued calls since the last report.
+   */
+  public AdmissionSnapshot reportQueue() {
+    lock.lock();
+    try {
+      long overloaded = 0;
+      for (Flow flow : flows.values()) {
+        if (flow.overloaded) {
+          overloaded++;
+        }
+      }
+      return AdmissionSnapshot.create(
+          inFlight, depth, overloaded, dropped.interval(), sojournTime.interval());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static Recorder newRecorder() {
+    return new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+  }
+
+  /** A grant to make an upstream call, which must be closed when the call completes. */
+  public class Permit implements AutoCloseable {
+
+    private final Flow flow;
+
+    private Permit(Flow flow) {
+      this.flow = flow;
+    }
+
+    @Override
+    public void close() {
+      release(flow);
+    }
+  }
+
+  private static class Flow {
+
+    private final String identity;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final IntervalAdder rejected = new IntervalAdder();
+    private final Recorder waitTime = newRecorder();
+    private double startTag;
+    private double finishTag;
+    private int inFlight;
+    private long firstAboveTime;
+    private boolean overloaded;
+
+    private Flow(String identity) {
+      this.identity = identity;
+    }
+  }
+
+  private static class Waiter {
+
+    private static final int QUEUED = 0;
+    private static final int ADMITTED = 1;
+    private static final int DROPPED = 2;
+
+    private final Flow flow;
+    private final long enqueuedAt;
+    private final Condition condition;
+    private int state;
+
+    private Waiter(Flow flow, long enqueuedAt, Condition condition) {
+      this.flow = flow;
+      this.enqueuedAt = enqueuedAt;
+      this.condition = condition;
+    }
+  }
+}
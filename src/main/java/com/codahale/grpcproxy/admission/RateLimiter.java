@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.admission;
+
+import com.codahale.grpcproxy.config.RateLimitConfig;
+import com.codahale.grpcproxy.config.RouteConfig;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.IntervalCount;
+import com.codahale.grpcproxy.stats.RateLimitSnapshot;
+import io.grpc.MethodDescriptor;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Rate limits calls by client identity and method with a token bucket per client and limit.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} holding the bucket's theoretical arrival time, as
+ * in the generic cell rate algorithm: a call is allowed if moving that time forward by one emission
+ * interval keeps it within {@code burst} intervals of now. Buckets are found without locking and
+ * updated with a compare-and-set, so callers never block each other.
+ *
+ * <p>The limit for a pair is the most specific configured limit: one for the client before one for
+ * any client, and then an exact method before a service wildcard before {@code *}. A wildcard
+ * limit applies to all the methods it matches in aggregate, with a single bucket for each client,
+ * so the number of buckets is bounded by the number of clients and limits rather than by the
+ * method names clients make up.
+ */
+public class RateLimiter {
+
+  private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final ConcurrentMap<String, ConcurrentMap<String, Bucket>> buckets =
+      new ConcurrentHashMap<>();
+  private volatile Limits limits = new Limits(new HashMap<>());
+
+  /** Replaces the configured limits. Buckets are reset as they're next used. */
+  public void setLimits(List<RateLimitConfig> configs) {
+    final Map<String, Map<String, Limit>> index = new HashMap<>();
+    for (RateLimitConfig config : configs) {
+      index
+          .computeIfAbsent(config.client(), k -> new HashMap<>())
+          .put(config.method(), new Limit(config));
+    }
+    this.limits = new Limits(index);
+  }
+
+  /**
+   * Takes a token from the bucket for the given client and the limit which applies to the given
+   * method, returning {@code false} if none are left.
+   */
+  public boolean tryAcquire(String identity, String fullMethodName) {
+    final Limits limits = this.limits;
+    if (limits.isEmpty()) {
+      return true;
+    }
+
+    // method names come from clients, so buckets are keyed by the limit's method pattern
+    final Limit limit = limits.lookup(identity, fullMethodName);
+    if (limit == null) {
+      return true;
+    }
+
+    ConcurrentMap<String, Bucket> methods = buckets.get(identity);
+    if (methods == null) {
+      methods = buckets.computeIfAbsent(identity, k -> new ConcurrentHashMap<>());
+    }
+
+    Bucket bucket = methods.get(limit.method);
+    while (bucket == null || bucket.limits != limits) {
+      final Bucket fresh = new Bucket(limits, limit);
+      final boolean replaced =
+          bucket == null
+              ? methods.putIfAbsent(limit.method, fresh) == null
+              : methods.replace(limit.method, bucket, fresh);
+      bucket = replaced ? fresh : methods.get(limit.method);
+    }
+    return bucket.tryAcquire(System.nanoTime());
+  }
+
+  /**
+   * Returns the number of buckets and the number of calls rejected by each limit since the last
+   * report. Buckets which have been full for a while are evicted afterwards, since a full bucket is
+   * the same as no bucket.
+   */
+  public RateLimitSnapshot report() {
+    final Map<String, IntervalCount> rejected = new TreeMap<>();
+    for (Map<String, Limit> methods : limits.index.values()) {
+      for (Limit limit : methods.values()) {
+        rejected.put(limit.name, limit.rejected.interval());
+      }
+    }
+
+    final long now = System.nanoTime();
+    long count = 0;
+    for (ConcurrentMap<String, Bucket> methods : buckets.values()) {
+      methods.values().removeIf(bucket -> now - bucket.tat.get() > IDLE_NANOS);
+      count += methods.size();
+    }
+    buckets.values().removeIf(Map::isEmpty);
+    return RateLimitSnapshot.create(count, rejected);
+  }
+
+  private static class Limits {
+
+    private final Map<String, Map<String, Limit>> index;
+
+    private Limits(Map<String, Map<String, Limit>> index) {
+      this.index = index;
+    }
+
+    private boolean isEmpty() {
+      return index.isEmpty();
+    }
+
+    @Nullable
+    private Limit lookup(String identity, String fullMethodName) {
+      final Limit limit = lookup(index.get(identity), fullMethodName);
+      return limit != null ? limit : lookup(index.get(RouteConfig.WILDCARD), fullMethodName);
+    }
+
+    @Nullable
+    private static Limit lookup(@Nullable Map<String, Limit> methods, String fullMethodName) {
+      if (methods == null) {
+        return null;
+      }
+      Limit limit = methods.get(fullMethodName);
+      if (limit == null) {
+        final String service = MethodDescriptor.extractFullServiceName(fullMethodName);
+        limit = methods.get(service + "/" + RouteConfig.WILDCARD);
+      }
+      return limit != null ? limit : methods.get(RouteConfig.WILDCARD);
+    }
+  }
+
+  private static class Limit {
+
+    private final String name;
+    private final String method;
+    private final long interval;
+    private final long tolerance;
+    private final IntervalAdder rejected;
+
+    private Limit(RateLimitConfig config) {
+      this.name = config.client() + " " + config.method();
+      this.method = config.method();
+      this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate());
+      this.tolerance = interval * config.burst();
+      this.rejected = new IntervalAdder();
+    }
+  }
+
+  private static class Bucket {
+
+    private final Limits limits;
+    private final Limit limit;
+    private final AtomicLong tat;
+
+    private Bucket(Limits limits, Limit limit) {
+      this.limits = limits;
+      this.limit = limit;
+      this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    private boolean tryAcquire(long now) {
+      while (true) {
+        final long t = tat.get();
+        final long next = Math.max(t, now) + limit.interval;
+        if (next - now > limit.tolerance) {
+          limit.rejected.add(1);
+          return false;
+        }
+        if (tat.compareAndSet(t, next)) {
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+/**
+ * The concurrency limits of a route, isolating its upstream calls from those of other routes.
+ *
+ * <p>With {@code semaphore} isolation, calls run on the gRPC executor and wait their turn there.
+ * With {@code thread_pool} isolation, calls are handed off to a pool of threads dedicated to the
+ * route and wait in its queue.
+ */
+@AutoValue
+public abstract class BulkheadConfig {
+
+  public enum Isolation {
+    SEMAPHORE,
+    THREAD_POOL
+  }
+
+  @JsonCreator
+  public static BulkheadConfig create(
+      @JsonProperty("max_concurrency") int maxConcurrency,
+      @JsonProperty("max_queue_depth") @Nullable Integer maxQueueDepth,
+      @JsonProperty("isolation") @Nullable String isolation) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("Invalid bulkhead concurrency: " + maxConcurrency);
+    }
+    final int depth = maxQueueDepth == null ? 0 : maxQueueDepth;
+    if (depth < 0) {
+      throw new IllegalArgumentException("Invalid bulkhead queue depth: " + depth);
+    }
+    final Isolation mode;
+    if (isolation == null || isolation.equals("semaphore")) {
+      mode = Isolation.SEMAPHORE;
+    } else if (isolation.equals("thread_pool")) {
+      mode = Isolation.THREAD_POOL;
+    } else {
+      throw new IllegalArgumentException("Invalid bulkhead isolation: " + isolation);
+    }
+    return new AutoValue_BulkheadConfig(maxConcurrency, depth, mode);
+  }
+
+  @JsonProperty("max_concurrency")
+  public abstract int maxConcurrency();
+
+  /** The number of calls which can wait for the bulkhead before calls are rejected. */
+  @JsonProperty("max_queue_depth")
+  public abstract int maxQueueDepth();
+
+  @JsonProperty
+  public abstract Isolation isolation();
+}
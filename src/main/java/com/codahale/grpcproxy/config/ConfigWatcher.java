@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls a configuration file for changes and hands each new version to a listener.
+ *
+ * <p>Changes are detected by hashing the file's contents rather than by its modification time,
+ * which on some filesystems only has a resolution of a second and so misses a second edit made in
+ * the same second as the first. A file which fails to parse is logged and ignored, leaving the
+ * previous configuration in place.
+ */
+public class ConfigWatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigWatcher.class);
+
+  private final Path path;
+  private HashCode hash;
+  private ScheduledExecutorService executor;
+
+  public ConfigWatcher(Path path) {
+    this.path = path;
+  }
+
+  /** Loads the current version of the file. */
+  public ProxyConfig load() throws IOException {
+    final byte[] json = Files.readAllBytes(path);
+    this.hash = Hashing.sha256().hashBytes(json);
+    return ProxyConfig.load(json);
+  }
+
+  // Parses the given contents of the file, or returns null if they match the last version loaded.
+  @Nullable
+  private ProxyConfig reload(byte[] json) throws IOException {
+    final HashCode newHash = Hashing.sha256().hashBytes(json);
+    if (newHash.equals(hash)) {
+      return null;
+    }
+    this.hash = newHash;
+    return ProxyConfig.load(json);
+  }
+
+  public void start(Consumer<ProxyConfig> listener) {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    executor.scheduleWithFixedDelay(() -> check(listener), 1, 1, TimeUnit.SECONDS);
+  }
+
+  public void stop() {
+    executor.shutdown();
+  }
+
+  private void check(Consumer<ProxyConfig> listener) {
+    try {
+      final ProxyConfig config = reload(Files.readAllBytes(path));
+      if (config != null) {
+        listener.accept(config);
+        LOGGER.info("Reloaded {}", path);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Error reloading {}", path, e);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import java.util.Base64;
+import javax.annotation.Nullable;
+
+/**
+ * An active health check for a route's upstreams: a periodic {@code POST} of a known method and
+ * request. An upstream which fails {@link #unhealthyThreshold()} probes in a row is taken out of
+ * rotation until it passes {@link #healthyThreshold()} in a row.
+ */
+@AutoValue
+public abstract class HealthCheckConfig {
+
+  @JsonCreator
+  public static HealthCheckConfig create(
+      @JsonProperty("method") String method,
+      @JsonProperty("body") @Nullable String body,
+      @JsonProperty("interval") @Nullable Long interval,
+      @JsonProperty("timeout") @Nullable Long timeout,
+      @JsonProperty("unhealthy_threshold") @Nullable Integer unhealthyThreshold,
+      @JsonProperty("healthy_threshold") @Nullable Integer healthyThreshold) {
+    if (method == null || method.indexOf('/') < 1) {
+      throw new IllegalArgumentException("Invalid health check method: " + method);
+    }
+    final String b = body == null ? "" : body;
+    try {
+      Base64.getDecoder().decode(b);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid health check body: " + b, e);
+    }
+    final long i = positive("interval", interval, 5_000);
+    final long t = positive("timeout", timeout, 1_000);
+    final int unhealthy = (int) positive("unhealthy threshold", unhealthyThreshold, 3);
+    final int healthy = (int) positive("healthy threshold", healthyThreshold, 2);
+    return new AutoValue_HealthCheckConfig(method, b, i, t, unhealthy, healthy);
+  }
+
+  private static long positive(String name, @Nullable Number value, long defaultValue) {
+    final long v = value == null ? defaultValue : value.longValue();
+    if (v < 1) {
+      throw new IllegalArgumentException("Invalid health check " + name + ": " + v);
+    }
+    return v;
+  }
+
+  /** The full name of the method to call. */
+  @JsonProperty
+  public abstract String method();
+
+  /** The base64-encoded request to send. */
+  @JsonProperty
+  public abstract String body();
+
+  /** The time between probes, in milliseconds. */
+  @JsonProperty
+  public abstract long interval();
+
+  /** The time after which a probe has failed, in milliseconds. */
+  @JsonProperty
+  public abstract long timeout();
+
+  @JsonProperty("unhealthy_threshold")
+  public abstract int unhealthyThreshold();
+
+  @JsonProperty("healthy_threshold")
+  public abstract int healthyThreshold();
+}
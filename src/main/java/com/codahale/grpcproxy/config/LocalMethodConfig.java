@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+/**
+ * Whether calls to a method with a local implementation are served in-process instead of being
+ * proxied, and for what percentage of calls.
+ */
+@AutoValue
+public abstract class LocalMethodConfig {
+
+  @JsonCreator
+  public static LocalMethodConfig create(
+      @JsonProperty("enabled") @Nullable Boolean enabled,
+      @JsonProperty("percent") @Nullable Double percent) {
+    final double p = percent == null ? 100 : percent;
+    if (p < 0 || p > 100) {
+      throw new IllegalArgumentException("Invalid local method percent: " + p);
+    }
+    return new AutoValue_LocalMethodConfig(enabled == null || enabled, p);
+  }
+
+  @JsonProperty
+  public abstract boolean enabled();
+
+  /** The percentage of calls to serve locally. */
+  @JsonProperty
+  public abstract double percent();
+}
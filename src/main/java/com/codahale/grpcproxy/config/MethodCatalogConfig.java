@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+/**
+ * Where to find the set of methods the upstreams implement: either a {@code FileDescriptorSet}
+ * file, as written by {@code protoc --descriptor_set_out}, or a URL which lists one full method
+ * name per line. It's reloaded every {@link #refreshInterval()}.
+ */
+@AutoValue
+public abstract class MethodCatalogConfig {
+
+  @JsonCreator
+  public static MethodCatalogConfig create(
+      @JsonProperty("descriptor_set") @Nullable String descriptorSet,
+      @JsonProperty("url") @Nullable String url,
+      @JsonProperty("refresh_interval") @Nullable Long refreshInterval) {
+    if ((descriptorSet == null) == (url == null)) {
+      throw new IllegalArgumentException("A method catalog needs either a descriptor set or a URL");
+    }
+    final long i = refreshInterval == null ? 60_000 : refreshInterval;
+    if (i < 1) {
+      throw new IllegalArgumentException("Invalid method catalog refresh interval: " + i);
+    }
+    return new AutoValue_MethodCatalogConfig(descriptorSet, url, i);
+  }
+
+  /** The path of a {@code FileDescriptorSet} describing the upstreams' services. */
+  @Nullable
+  @JsonProperty("descriptor_set")
+  public abstract String descriptorSet();
+
+  /** The URL of a plain text list of full method names. */
+  @Nullable
+  @JsonProperty
+  public abstract String url();
+
+  /** The time between reloads, in milliseconds. */
+  @JsonProperty("refresh_interval")
+  public abstract long refreshInterval();
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+/**
+ * Passive outlier detection for a route's upstreams. Every {@link #interval()}, each upstream which
+ * handled at least {@link #minRequests()} calls is compared with its peers: if its error rate is
+ * more than {@link #errorRate()} above the median of theirs, or its p99 is more than {@link
+ * #latencyFactor()} times the median of theirs, it's ejected from rotation. Ejections last {@link
+ * #baseEjectionTime()}, doubling with each consecutive ejection up to {@link #maxEjectionTime()},
+ * and no more than {@link #maxEjectedPercent()} of upstreams are ejected at once.
+ */
+@AutoValue
+public abstract class OutlierDetectionConfig {
+
+  @JsonCreator
+  public static OutlierDetectionConfig create(
+      @JsonProperty("interval") @Nullable Long interval,
+      @JsonProperty("min_requests") @Nullable Integer minRequests,
+      @JsonProperty("error_rate") @Nullable Double errorRate,
+      @JsonProperty("latency_factor") @Nullable Double latencyFactor,
+      @JsonProperty("base_ejection_time") @Nullable Long baseEjectionTime,
+      @JsonProperty("max_ejection_time") @Nullable Long maxEjectionTime,
+      @JsonProperty("max_ejected_percent") @Nullable Integer maxEjectedPercent) {
+    final long i = interval == null ? 10_000 : interval;
+    final int min = minRequests == null ? 20 : minRequests;
+    final double rate = errorRate == null ? 0.1 : errorRate;
+    final double factor = latencyFactor == null ? 3 : latencyFactor;
+    final long base = baseEjectionTime == null ? 30_000 : baseEjectionTime;
+    final long max = maxEjectionTime == null ? 300_000 : maxEjectionTime;
+    final int percent = maxEjectedPercent == null ? 50 : maxEjectedPercent;
+    if (i < 1 || min < 1 || base < 1 || max < base) {
+      throw new IllegalArgumentException("Invalid outlier detection timing or minimum");
+    }
+    if (rate <= 0 || rate > 1) {
+      throw new IllegalArgumentException("Invalid outlier error rate: " + rate);
+    }
+    if (factor <= 1) {
+      throw new IllegalArgumentException("Invalid outlier latency factor: " + factor);
+    }
+    if (percent < 0 || percent > 100) {
+      throw new IllegalArgumentException("Invalid outlier max ejected percent: " + percent);
+    }
+    return new AutoValue_OutlierDetectionConfig(i, min, rate, factor, base, max, percent);
+  }
+
+  /** The time between evaluations, in milliseconds. */
+  @JsonProperty
+  public abstract long interval();
+
+  @JsonProperty("min_requests")
+  public abstract int minRequests();
+
+  @JsonProperty("error_rate")
+  public abstract double errorRate();
+
+  @JsonProperty("latency_factor")
+  public abstract double latencyFactor();
+
+  /** The length of a first ejection, in milliseconds. */
+  @JsonProperty("base_ejection_time")
+  public abstract long baseEjectionTime();
+
+  /** The longest an upstream can be ejected for, in milliseconds. */
+  @JsonProperty("max_ejection_time")
+  public abstract long maxEjectionTime();
+
+  @JsonProperty("max_ejected_percent")
+  public abstract int maxEjectedPercent();
+}
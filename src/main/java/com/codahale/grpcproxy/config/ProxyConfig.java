@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/** The reloadable configuration of a proxy server, read from a JSON file. */
+@AutoValue
+public abstract class ProxyConfig {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @JsonCreator
+  public static ProxyConfig create(
+      @JsonProperty("routes") @Nullable List<RouteConfig> routes,
+      @JsonProperty("client_weights") @Nullable Map<String, Integer> clientWeights,
+      @JsonProperty("rate_limits") @Nullable List<RateLimitConfig> rateLimits,
+      @JsonProperty("local_methods") @Nullable Map<String, LocalMethodConfig> localMethods,
+      @JsonProperty("method_catalog") @Nullable MethodCatalogConfig methodCatalog) {
+    if (clientWeights != null) {
+      for (Map.Entry<String, Integer> entry : clientWeights.entrySet()) {
+        if (entry.getValue() == null || entry.getValue() < 1) {
+          throw new IllegalArgumentException("Invalid weight for " + entry.getKey());
+        }
+      }
+    }
+    if (rateLimits != null) {
+      final Set<String> keys = new HashSet<>();
+      for (RateLimitConfig limit : rateLimits) {
+        if (!keys.add(limit.client() + " " + limit.method())) {
+          throw new IllegalArgumentException(
+              "Duplicate rate limit: " + limit.client() + " " + limit.method());
+        }
+      }
+    }
+    if (localMethods != null) {
+      for (Map.Entry<String, LocalMethodConfig> entry : localMethods.entrySet()) {
+        if (entry.getKey().indexOf('/') < 1 || entry.getValue() == null) {
+          throw new IllegalArgumentException("Invalid local method: " + entry.getKey());
+        }
+      }
+    }
+    return new AutoValue_ProxyConfig(
+        routes == null ? ImmutableList.of() : ImmutableList.copyOf(routes),
+        clientWeights == null ? ImmutableMap.of() : ImmutableMap.copyOf(clientWeights),
+        rateLimits == null ? ImmutableList.of() : ImmutableList.copyOf(rateLimits),
+        localMethods == null ? ImmutableMap.of() : ImmutableMap.copyOf(localMethods),
+        methodCatalog);
+  }
+
+  /** Returns a configuration which sends every method to the given upstream. */
+  public static ProxyConfig forUpstream(String upstream) {
+    return create(
+        ImmutableList.of(RouteConfig.create(RouteConfig.WILDCARD, upstream)),
+        null,
+        null,
+        null,
+        null);
+  }
+
+  public static ProxyConfig load(byte[] json) throws IOException {
+    return MAPPER.readValue(json, ProxyConfig.class);
+  }
+
+  @JsonProperty
+  public abstract List<RouteConfig> routes();
+
+  /**
+   * The weight of each client in the fair queue, by certificate subject. Clients without a weight
+   * have a weight of 1.
+   */
+  @JsonProperty("client_weights")
+  public abstract Map<String, Integer> clientWeights();
+
+  @JsonProperty("rate_limits")
+  public abstract List<RateLimitConfig> rateLimits();
+
+  /**
+   * Which methods to serve in-process, by full method name. Methods without a local implementation
+   * are always proxied.
+   */
+  @JsonProperty("local_methods")
+  public abstract Map<String, LocalMethodConfig> localMethods();
+
+  /**
+   * Where to find the methods the upstreams implement, or {@code null} to proxy calls to any method
+   * with a route.
+   */
+  @Nullable
+  @JsonProperty("method_catalog")
+  public abstract MethodCatalogConfig methodCatalog();
+}
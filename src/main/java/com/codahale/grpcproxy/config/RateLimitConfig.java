@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+/**
+ * A token bucket rate limit for calls from a client to a method. The client is a certificate
+ * subject or {@code *}; the method is matched the same way as a route's.
+ */
+@AutoValue
+public abstract class RateLimitConfig {
+
+  @JsonCreator
+  public static RateLimitConfig create(
+      @JsonProperty("client") @Nullable String client,
+      @JsonProperty("method") @Nullable String method,
+      @JsonProperty("rate") double rate,
+      @JsonProperty("burst") @Nullable Integer burst) {
+    final String c = client == null ? RouteConfig.WILDCARD : client;
+    final String m = method == null ? RouteConfig.WILDCARD : method;
+    if (!m.equals(RouteConfig.WILDCARD) && m.indexOf('/') < 1) {
+      throw new IllegalArgumentException("Invalid rate limit method: " + m);
+    }
+    if (!(rate > 0)) {
+      throw new IllegalArgumentException("Invalid rate for " + c + " " + m + ": " + rate);
+    }
+    final int b = burst == null ? (int) Math.max(1, Math.ceil(rate)) : burst;
+    if (b < 1) {
+      throw new IllegalArgumentException("Invalid burst for " + c + " " + m + ": " + b);
+    }
+    return new AutoValue_RateLimitConfig(c, m, rate, b);
+  }
+
+  @JsonProperty
+  public abstract String client();
+
+  @JsonProperty
+  public abstract String method();
+
+  /** The sustained number of calls per second. */
+  @JsonProperty
+  public abstract double rate();
+
+  /** The number of calls which can be made at once after a period of inactivity. */
+  @JsonProperty
+  public abstract int burst();
+}
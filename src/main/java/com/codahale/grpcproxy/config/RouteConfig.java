@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import javax.annotation.Nullable;
+import okhttp3.HttpUrl;
+
+/**
+ * The configuration of a single route.
+ *
+ * <p>A route matches either a full method name ({@code helloworld.Greeter/SayHello}), every method
+ * of a service ({@code helloworld.Greeter/*}), or every method ({@code *}). Matching requests are
+ * sent to one of the upstream URLs, with the path replaced by {@link #path()} if one is given.
+ *
+ * <p>If a route has a {@link #shardField()}, requests are assigned to upstreams by consistently
+ * hashing the value of that top-level field in the encoded request. Otherwise they're spread
+ * round-robin.
+ *
+ * <p>If a route has a {@link #bulkhead()}, its upstream calls are limited separately from those of
+ * other routes.
+ *
+ * <p>If a route has a {@link #shadow()}, a sample of its requests are also sent to the shadow
+ * upstream in the background.
+ *
+ * <p>Upstreams which fail the route's {@link #healthCheck()}, or which are found to be outliers by
+ * its {@link #outlierDetection()}, are skipped until they recover.
+ */
+@AutoValue
+public abstract class RouteConfig {
+
+  public static final String WILDCARD = "*";
+  private static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+
+  @JsonCreator
+  public static RouteConfig create(
+      @JsonProperty("match") String match,
+      @JsonProperty("upstream") @Nullable String upstream,
+      @JsonProperty("upstreams") @Nullable List<String> upstreams,
+      @JsonProperty("path") @Nullable String path,
+      @JsonProperty("shard_field") @Nullable Integer shardField,
+      @JsonProperty("bulkhead") @Nullable BulkheadConfig bulkhead,
+      @JsonProperty("shadow") @Nullable ShadowConfig shadow,
+      @JsonProperty("health_check") @Nullable HealthCheckConfig healthCheck,
+      @JsonProperty("outlier_detection") @Nullable OutlierDetectionConfig outlierDetection) {
+    if (match == null || match.isEmpty()) {
+      throw new IllegalArgumentException("Route has no match");
+    }
+    if (!match.equals(WILDCARD) && match.indexOf('/') < 1) {
+      throw new IllegalArgumentException("Invalid route match: " + match);
+    }
+    final ImmutableList.Builder<String> urls = ImmutableList.builder();
+    if (upstream != null) {
+      urls.add(upstream);
+    }
+    if (upstreams != null) {
+      urls.addAll(upstreams);
+    }
+    final ImmutableList<String> all = urls.build();
+    if (all.isEmpty()) {
+      throw new IllegalArgumentException("Route has no upstreams: " + match);
+    }
+    for (String url : all) {
+      if (HttpUrl.parse(url) == null) {
+        throw new IllegalArgumentException("Invalid upstream for " + match + ": " + url);
+      }
+    }
+    if (path != null && !path.startsWith("/")) {
+      throw new IllegalArgumentException("Invalid path for " + match + ": " + path);
+    }
+    if (shardField != null && (shardField < 1 || shardField > MAX_FIELD_NUMBER)) {
+      throw new IllegalArgumentException("Invalid shard field for " + match + ": " + shardField);
+    }
+    return new AutoValue_RouteConfig(
+        match, all, path, shardField, bulkhead, shadow, healthCheck, outlierDetection);
+  }
+
+  public static RouteConfig create(String match, String upstream) {
+    return create(match, upstream, null, null, null, null, null, null, null);
+  }
+
+  @JsonProperty
+  public abstract String match();
+
+  @JsonProperty
+  public abstract List<String> upstreams();
+
+  @Nullable
+  @JsonProperty
+  public abstract String path();
+
+  @Nullable
+  @JsonProperty("shard_field")
+  public abstract Integer shardField();
+
+  @Nullable
+  @JsonProperty
+  public abstract BulkheadConfig bulkhead();
+
+  @Nullable
+  @JsonProperty
+  public abstract ShadowConfig shadow();
+
+  @Nullable
+  @JsonProperty("health_check")
+  public abstract HealthCheckConfig healthCheck();
+
+  @Nullable
+  @JsonProperty("outlier_detection")
+  public abstract OutlierDetectionConfig outlierDetection();
+}
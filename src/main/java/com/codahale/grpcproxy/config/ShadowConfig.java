@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+import okhttp3.HttpUrl;
+
+/**
+ * A shadow upstream for a route, to which a sample of the route's requests are copied after the
+ * primary upstream has responded. Shadow responses are never returned to clients.
+ */
+@AutoValue
+public abstract class ShadowConfig {
+
+  @JsonCreator
+  public static ShadowConfig create(
+      @JsonProperty("upstream") String upstream,
+      @JsonProperty("path") @Nullable String path,
+      @JsonProperty("percent") @Nullable Double percent,
+      @JsonProperty("concurrency") @Nullable Integer concurrency,
+      @JsonProperty("max_queue_depth") @Nullable Integer maxQueueDepth,
+      @JsonProperty("compare") @Nullable Boolean compare) {
+    if (upstream == null || HttpUrl.parse(upstream) == null) {
+      throw new IllegalArgumentException("Invalid shadow upstream: " + upstream);
+    }
+    if (path != null && !path.startsWith("/")) {
+      throw new IllegalArgumentException("Invalid shadow path: " + path);
+    }
+    final double p = percent == null ? 100 : percent;
+    if (p < 0 || p > 100) {
+      throw new IllegalArgumentException("Invalid shadow percent: " + p);
+    }
+    final int c = concurrency == null ? 4 : concurrency;
+    if (c < 1) {
+      throw new IllegalArgumentException("Invalid shadow concurrency: " + c);
+    }
+    final int depth = maxQueueDepth == null ? 1_000 : maxQueueDepth;
+    if (depth < 1) {
+      throw new IllegalArgumentException("Invalid shadow queue depth: " + depth);
+    }
+    return new AutoValue_ShadowConfig(upstream, path, p, c, depth, compare != null && compare);
+  }
+
+  @JsonProperty
+  public abstract String upstream();
+
+  @Nullable
+  @JsonProperty
+  public abstract String path();
+
+  /** The percentage of requests which are copied to the shadow. */
+  @JsonProperty
+  public abstract double percent();
+
+  /** The number of concurrent calls made to the shadow. */
+  @JsonProperty
+  public abstract int concurrency();
+
+  /** The number of copies which can wait to be sent before further copies are dropped. */
+  @JsonProperty("max_queue_depth")
+  public abstract int maxQueueDepth();
+
+  /** Whether to count how often the shadow's response differs from the primary's. */
+  @JsonProperty
+  public abstract boolean compare();
+}
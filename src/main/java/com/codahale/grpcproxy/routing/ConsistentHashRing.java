@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * An immutable consistent hash ring. Each node is placed on the ring at a number of pseudo-random
+ * points, and a key belongs to the node owning the first point at or after the key's hash.
+ */
+public class ConsistentHashRing<T> {
+
+  private static final int POINTS_PER_NODE = 128;
+
+  private final long[] points;
+  private final Object[] owners;
+
+  public ConsistentHashRing(List<T> nodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("Empty ring");
+    }
+    final long[][] entries = new long[nodes.size() * POINTS_PER_NODE][];
+    int n = 0;
+    for (int i = 0; i < nodes.size(); i++) {
+      final String node = nodes.get(i).toString();
+      for (int j = 0; j < POINTS_PER_NODE; j++) {
+        final byte[] b = (node + '#' + j).getBytes(StandardCharsets.UTF_8);
+        entries[n++] = new long[] {hash(b, 0, b.length), i};
+      }
+    }
+    Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+    this.points = new long[entries.length];
+    this.owners = new Object[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      points[i] = entries[i][0];
+      owners[i] = nodes.get((int) entries[i][1]);
+    }
+  }
+
+  /** Returns the node which owns the given range of bytes. Does not allocate. */
+  @SuppressWarnings("unchecked")
+  public T get(byte[] key, int offset, int length) {
+    return (T) owners[index(hash(key, offset, length))];
+  }
+
+  /**
+   * Returns the first node at or after the given range of bytes which is available, or the owner of
+   * the range if none are, so that only the keys of unavailable nodes move. Does not allocate if
+   * {@code available} doesn't capture anything.
+   */
+  @SuppressWarnings("unchecked")
+  public T get(byte[] key, int offset, int length, Predicate<? super T> available) {
+    final int start = index(hash(key, offset, length));
+    for (int i = 0; i < owners.length; i++) {
+      final T owner = (T) owners[(start + i) % owners.length];
+      if (available.test(owner)) {
+        return owner;
+      }
+    }
+    return (T) owners[start];
+  }
+
+  private int index(long hash) {
+    final int i = Arrays.binarySearch(points, hash);
+    if (i >= 0) {
+      return i;
+    }
+    final int insertion = -(i + 1);
+    return insertion == points.length ? 0 : insertion;
+  }
+
+  // 64-bit FNV-1a, finished with the MurmurHash3 mixer to spread short keys around the ring.
+  static long hash(byte[] b, int offset, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = offset; i < offset + length; i++) {
+      h ^= b[i] & 0xFF;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
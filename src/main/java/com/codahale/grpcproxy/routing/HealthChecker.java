@@ -0,0 +1,261 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.config.HealthCheckConfig;
+import com.codahale.grpcproxy.config.OutlierDetectionConfig;
+import com.codahale.grpcproxy.stats.HealthSnapshot;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.Snapshot;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import net.logstash.logback.marker.LogstashMarker;
+import net.logstash.logback.marker.Markers;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes a route's upstreams out of rotation while they fail active health checks or stand out from
+ * their peers as outliers, and puts them back once they recover. Probes are sent asynchronously and
+ * outliers are evaluated on a single thread shared by every route.
+ */
+class HealthChecker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HealthChecker.class);
+  private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("health-checker-%d").setDaemon(true).build());
+
+  private final String name;
+  private final ImmutableList<Upstream> upstreams;
+  @Nullable private final HealthCheckConfig healthCheck;
+  @Nullable private final OutlierDetectionConfig outlierDetection;
+  @Nullable private final OkHttpClient client;
+  private final byte[] body;
+  private final IntervalAdder unhealthy = new IntervalAdder();
+  private final IntervalAdder ejected = new IntervalAdder();
+  private final IntervalAdder restored = new IntervalAdder();
+  private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+  HealthChecker(
+      String name,
+      ImmutableList<Upstream> upstreams,
+      OkHttpClient routeClient,
+      @Nullable HealthCheckConfig healthCheck,
+      @Nullable OutlierDetectionConfig outlierDetection) {
+    this.name = name;
+    this.upstreams = upstreams;
+    this.healthCheck = healthCheck;
+    this.outlierDetection = outlierDetection;
+    if (healthCheck == null) {
+      this.client = null;
+      this.body = new byte[0];
+    } else {
+      this.client =
+          routeClient
+              .newBuilder()
+              .connectTimeout(healthCheck.timeout(), TimeUnit.MILLISECONDS)
+              .readTimeout(healthCheck.timeout(), TimeUnit.MILLISECONDS)
+              .writeTimeout(healthCheck.timeout(), TimeUnit.MILLISECONDS)
+              .build();
+      this.body = Base64.getDecoder().decode(healthCheck.body());
+      tasks.add(
+          SCHEDULER.scheduleWithFixedDelay(
+              this::probe, 0, healthCheck.interval(), TimeUnit.MILLISECONDS));
+    }
+    if (outlierDetection != null) {
+      tasks.add(
+          SCHEDULER.scheduleWithFixedDelay(
+              this::evaluate,
+              outlierDetection.interval(),
+              outlierDetection.interval(),
+              TimeUnit.MILLISECONDS));
+    }
+  }
+
+  private void probe() {
+    for (Upstream upstream : upstreams) {
+      final RequestBody reqBody = RequestBody.create(OCTET_STREAM, body);
+      final Request req =
+          new Request.Builder().url(upstream.url(healthCheck.method())).post(reqBody).build();
+      client
+          .newCall(req)
+          .enqueue(
+              new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                  probed(upstream, false);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                  try (Response ignored = response) {
+                    probed(upstream, response.isSuccessful());
+                  }
+                }
+              });
+    }
+  }
+
+  private synchronized void probed(Upstream upstream, boolean passed) {
+    if (passed) {
+      upstream.failedProbes = 0;
+      if (!upstream.isHealthy() && ++upstream.passedProbes >= healthCheck.healthyThreshold()) {
+        upstream.setHealthy(true);
+        LOGGER.info(marker(upstream), "Upstream is healthy");
+      }
+    } else {
+      upstream.passedProbes = 0;
+      if (upstream.isHealthy() && ++upstream.failedProbes >= healthCheck.unhealthyThreshold()) {
+        upstream.setHealthy(false);
+        unhealthy.add(1);
+        LOGGER.warn(marker(upstream), "Upstream is unhealthy");
+      }
+    }
+  }
+
+  // Compares each upstream with the median of its peers, rather than of everyone, so that one bad
+  // upstream out of two still stands out.
+  private synchronized void evaluate() {
+    final long now = System.nanoTime();
+    final int n = upstreams.size();
+    final double[] errorRates = new double[n];
+    final double[] p99s = new double[n];
+    final boolean[] sampled = new boolean[n];
+    int ejectedCount = 0;
+    for (int i = 0; i < n; i++) {
+      final Upstream upstream = upstreams.get(i);
+      if (upstream.isEjected() && now - upstream.ejectedUntil >= 0) {
+        upstream.setEjected(false);
+        restored.add(1);
+        LOGGER.info(marker(upstream), "Upstream restored");
+      }
+      if (upstream.isEjected()) {
+        ejectedCount++;
+      }
+
+      final Snapshot snapshot = upstream.recorder().interval();
+      final long errors = upstream.errors().interval().count();
+      if (snapshot.count() >= outlierDetection.minRequests()) {
+        sampled[i] = true;
+        errorRates[i] = (double) errors / snapshot.count();
+        p99s[i] = snapshot.p99();
+      }
+    }
+
+    final int maxEjected = n * outlierDetection.maxEjectedPercent() / 100;
+    for (int i = 0; i < n; i++) {
+      final Upstream upstream = upstreams.get(i);
+      if (!sampled[i] || upstream.isEjected()) {
+        continue;
+      }
+
+      final double peerErrorRate = peerMedian(errorRates, sampled, i);
+      final double peerP99 = peerMedian(p99s, sampled, i);
+      if (Double.isNaN(peerErrorRate)) {
+        continue;
+      }
+
+      final String reason;
+      if (errorRates[i] > peerErrorRate + outlierDetection.errorRate()) {
+        reason = "error_rate";
+      } else if (peerP99 > 0 && p99s[i] > peerP99 * outlierDetection.latencyFactor()) {
+        reason = "latency";
+      } else {
+        // A clean interval works off one previous ejection.
+        if (upstream.ejections > 0) {
+          upstream.ejections--;
+        }
+        continue;
+      }
+
+      if (ejectedCount < maxEjected) {
+        eject(upstream, now, reason, errorRates[i], p99s[i]);
+        ejectedCount++;
+      }
+    }
+  }
+
+  private void eject(Upstream upstream, long now, String reason, double errorRate, double p99) {
+    final long duration =
+        Math.min(
+            outlierDetection.maxEjectionTime(),
+            outlierDetection.baseEjectionTime() << Math.min(upstream.ejections, 30));
+    upstream.ejections++;
+    upstream.ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(duration);
+    upstream.setEjected(true);
+    ejected.add(1);
+    LOGGER.warn(
+        marker(upstream)
+            .and(Markers.append("reason", reason))
+            .and(Markers.append("error_rate", errorRate))
+            .and(Markers.append("p99", p99))
+            .and(Markers.append("ejection_time", duration)),
+        "Upstream ejected");
+  }
+
+  private static double peerMedian(double[] values, boolean[] sampled, int self) {
+    final double[] peers = new double[values.length];
+    int n = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (i != self && sampled[i]) {
+        peers[n++] = values[i];
+      }
+    }
+    if (n == 0) {
+      return Double.NaN;
+    }
+    Arrays.sort(peers, 0, n);
+    return n % 2 == 1 ? peers[n / 2] : (peers[n / 2 - 1] + peers[n / 2]) / 2;
+  }
+
+  private LogstashMarker marker(Upstream upstream) {
+    return Markers.append("route", name).and(Markers.append("upstream", upstream.toString()));
+  }
+
+  /** Returns each upstream's state, and the upstreams marked unhealthy, ejected, and restored. */
+  HealthSnapshot report() {
+    final Map<String, String> states = new LinkedHashMap<>();
+    for (Upstream upstream : upstreams) {
+      states.put(upstream.toString(), upstream.state());
+    }
+    return HealthSnapshot.create(
+        states, unhealthy.interval(), ejected.interval(), restored.interval());
+  }
+
+  void close() {
+    tasks.forEach(task -> task.cancel(false));
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.config.MethodCatalogConfig;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.MethodCatalogSnapshot;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import net.logstash.logback.marker.Markers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The set of methods the upstreams implement, so that calls to any other method can be rejected
+ * without bothering them. It's loaded when created and reloaded in the background; if a reload
+ * fails, or finds no methods at all, the last set loaded is kept. Until a set has been loaded,
+ * every method is allowed.
+ */
+public class MethodCatalog {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MethodCatalog.class);
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("method-catalog-%d").setDaemon(true).build());
+
+  private final MethodCatalogConfig config;
+  private final OkHttpClient client;
+  private final IntervalAdder unknown = new IntervalAdder();
+  private final IntervalAdder failures = new IntervalAdder();
+  private final ScheduledFuture<?> task;
+  @Nullable private volatile ImmutableSet<String> methods;
+  private volatile long loadedAt;
+
+  public MethodCatalog(MethodCatalogConfig config, OkHttpClient client) {
+    this.config = config;
+    this.client = client;
+    refresh();
+    this.task =
+        SCHEDULER.scheduleWithFixedDelay(
+            this::refresh,
+            config.refreshInterval(),
+            config.refreshInterval(),
+            TimeUnit.MILLISECONDS);
+  }
+
+  public MethodCatalogConfig config() {
+    return config;
+  }
+
+  /** Returns whether the given method is in the catalog, counting it if it's not. */
+  public boolean contains(String methodName) {
+    final ImmutableSet<String> methods = this.methods;
+    if (methods == null || methods.contains(methodName)) {
+      return true;
+    }
+    unknown.add(1);
+    return false;
+  }
+
+  private void refresh() {
+    final ImmutableSet<String> loaded;
+    try {
+      loaded =
+          config.url() == null ? readDescriptorSet(config.descriptorSet()) : fetch(config.url());
+    } catch (IOException | RuntimeException e) {
+      failures.add(1);
+      LOGGER.warn("Error loading method catalog", e);
+      return;
+    }
+
+    if (loaded.isEmpty()) {
+      failures.add(1);
+      LOGGER.warn("Method catalog is empty, keeping the previous one");
+      return;
+    }
+
+    if (!loaded.equals(methods)) {
+      LOGGER.info(Markers.append("methods", loaded), "Loaded {} methods", loaded.size());
+    }
+    this.methods = loaded;
+    this.loadedAt = System.nanoTime();
+  }
+
+  private static ImmutableSet<String> readDescriptorSet(String path) throws IOException {
+    final FileDescriptorSet descriptors;
+    try (InputStream in = Files.newInputStream(Paths.get(path))) {
+      descriptors = FileDescriptorSet.parseFrom(in);
+    }
+
+    final ImmutableSet.Builder<String> methods = ImmutableSet.builder();
+    for (FileDescriptorProto file : descriptors.getFileList()) {
+      final String prefix = file.getPackage().isEmpty() ? "" : file.getPackage() + ".";
+      for (ServiceDescriptorProto service : file.getServiceList()) {
+        for (MethodDescriptorProto method : service.getMethodList()) {
+          methods.add(prefix + service.getName() + "/" + method.getName());
+        }
+      }
+    }
+    return methods.build();
+  }
+
+  private ImmutableSet<String> fetch(String url) throws IOException {
+    final Request req = new Request.Builder().url(url).get().build();
+    try (Response resp = client.newCall(req).execute()) {
+      final ResponseBody body = resp.body();
+      if (!resp.isSuccessful() || body == null) {
+        throw new IOException("Unexpected response from " + url + ": " + resp.code());
+      }
+
+      final ImmutableSet.Builder<String> methods = ImmutableSet.builder();
+      for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(body.string())) {
+        final String method = line.startsWith("/") ? line.substring(1) : line;
+        if (method.indexOf('/') < 1) {
+          throw new IOException("Invalid method in catalog: " + line);
+        }
+        methods.add(method);
+      }
+      return methods.build();
+    }
+  }
+
+  /**
+   * Returns the number of methods in the catalog, how long ago it was loaded, and the number of
+   * calls to unknown methods and failed reloads since the last report.
+   */
+  public MethodCatalogSnapshot report() {
+    final ImmutableSet<String> methods = this.methods;
+    return MethodCatalogSnapshot.create(
+        methods == null ? 0 : methods.size(),
+        methods == null ? 0 : (System.nanoTime() - loadedAt) * 1e-9,
+        unknown.interval(),
+        failures.interval());
+  }
+
+  public void close() {
+    task.cancel(false);
+  }
+}
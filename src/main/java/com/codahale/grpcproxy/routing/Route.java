@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.admission.Bulkhead;
+import com.codahale.grpcproxy.config.RouteConfig;
+import com.codahale.grpcproxy.stats.Recorder;
+import com.codahale.grpcproxy.util.ProtoFields;
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * A configured route, along with its connection pool, bulkhead, shadow, health checker, and
+ * upstream stats.
+ */
+public class Route {
+
+  private static final long MIN_DURATION = TimeUnit.MICROSECONDS.toMicros(500);
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  private final RouteConfig config;
+  private final ImmutableList<Upstream> upstreams;
+  @Nullable private final ConsistentHashRing<Upstream> ring;
+  private final AtomicInteger next;
+  private final OkHttpClient client;
+  private final Recorder recorder;
+  @Nullable private final Bulkhead bulkhead;
+  @Nullable private final Shadow shadow;
+  @Nullable private final HealthChecker healthChecker;
+
+  Route(RouteConfig config, OkHttpClient baseClient) {
+    this.config = config;
+    final ImmutableList.Builder<Upstream> upstreams = ImmutableList.builder();
+    for (String upstream : config.upstreams()) {
+      final HttpUrl url = HttpUrl.parse(upstream);
+      if (url == null) {
+        throw new IllegalArgumentException("Invalid upstream: " + upstream);
+      }
+      upstreams.add(
+          new Upstream(
+              config.path() == null ? url : url.newBuilder().encodedPath(config.path()).build()));
+    }
+    this.upstreams = upstreams.build();
+    this.ring = config.shardField() == null ? null : new ConsistentHashRing<>(this.upstreams);
+    this.next = new AtomicInteger();
+    final ConnectionPool connectionPool = new ConnectionPool(100, 5, TimeUnit.MINUTES);
+    this.client = baseClient.newBuilder().connectionPool(connectionPool).build();
+    this.recorder = new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+    this.bulkhead =
+        config.bulkhead() == null ? null : Bulkhead.create(config.match(), config.bulkhead());
+    this.shadow =
+        config.shadow() == null ? null : new Shadow(config.match(), config.shadow(), baseClient);
+    this.healthChecker =
+        config.healthCheck() == null && config.outlierDetection() == null
+            ? null
+            : new HealthChecker(
+                config.match(),
+                this.upstreams,
+                client,
+                config.healthCheck(),
+                config.outlierDetection());
+  }
+
+  public RouteConfig config() {
+    return config;
+  }
+
+  public OkHttpClient client() {
+    return client;
+  }
+
+  /** Returns the stats of calls made to the upstream. */
+  public Recorder recorder() {
+    return recorder;
+  }
+
+  /** Returns the route's bulkhead, or {@code null} if its calls aren't isolated. */
+  @Nullable
+  public Bulkhead bulkhead() {
+    return bulkhead;
+  }
+
+  /** Returns the route's shadow upstream, or {@code null} if its requests aren't mirrored. */
+  @Nullable
+  public Shadow shadow() {
+    return shadow;
+  }
+
+  /** Returns the route's health checker, or {@code null} if its upstreams aren't checked. */
+  @Nullable
+  HealthChecker healthChecker() {
+    return healthChecker;
+  }
+
+  /**
+   * Returns the upstream for the given encoded request, skipping any which are unavailable. If
+   * every upstream is unavailable, they're all used as if they were available.
+   */
+  public Upstream upstream(byte[] msg) {
+    if (upstreams.size() == 1) {
+      return upstreams.get(0);
+    }
+
+    if (ring == null) {
+      final int start = next.getAndIncrement();
+      for (int i = 0; i < upstreams.size(); i++) {
+        final Upstream upstream = upstreams.get(Math.floorMod(start + i, upstreams.size()));
+        if (upstream.isAvailable()) {
+          return upstream;
+        }
+      }
+      return upstreams.get(Math.floorMod(start, upstreams.size()));
+    }
+
+    // A missing shard field has the field's default value, so hash it as empty.
+    final long field = ProtoFields.find(msg, config.shardField());
+    if (field == ProtoFields.NOT_FOUND) {
+      return ring.get(msg, 0, 0, Upstream::isAvailable);
+    }
+    return ring.get(
+        msg, ProtoFields.offset(field), ProtoFields.length(field), Upstream::isAvailable);
+  }
+
+  void close() {
+    client.connectionPool().evictAll();
+    if (bulkhead != null) {
+      bulkhead.close();
+    }
+    if (shadow != null) {
+      shadow.close();
+    }
+    if (healthChecker != null) {
+      healthChecker.close();
+    }
+  }
+}
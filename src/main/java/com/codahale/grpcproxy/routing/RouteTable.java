@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.admission.Bulkhead;
+import com.codahale.grpcproxy.config.RouteConfig;
+import com.codahale.grpcproxy.stats.RouteSnapshot;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.grpc.MethodDescriptor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import okhttp3.OkHttpClient;
+
+/**
+ * An immutable table of routes, indexed by full method name, by service name, and with an optional
+ * default route. Lookups are a constant number of hash probes.
+ */
+public class RouteTable {
+
+  private static final String SERVICE_WILDCARD = "/" + RouteConfig.WILDCARD;
+
+  private final OkHttpClient baseClient;
+  private final ImmutableList<Route> routes;
+  private final ImmutableMap<String, Route> methods;
+  private final ImmutableMap<String, Route> services;
+  @Nullable private final Route fallback;
+
+  private RouteTable(OkHttpClient baseClient, List<Route> routes) {
+    this.baseClient = baseClient;
+    this.routes = ImmutableList.copyOf(routes);
+    final ImmutableMap.Builder<String, Route> methods = ImmutableMap.builder();
+    final ImmutableMap.Builder<String, Route> services = ImmutableMap.builder();
+    Route fallback = null;
+    for (Route route : routes) {
+      final String match = route.config().match();
+      if (match.equals(RouteConfig.WILDCARD)) {
+        fallback = route;
+      } else if (match.endsWith(SERVICE_WILDCARD)) {
+        services.put(match.substring(0, match.length() - SERVICE_WILDCARD.length()), route);
+      } else {
+        methods.put(match, route);
+      }
+    }
+    this.methods = methods.build();
+    this.services = services.build();
+    this.fallback = fallback;
+  }
+
+  public static RouteTable create(OkHttpClient baseClient, List<RouteConfig> configs) {
+    return new RouteTable(baseClient, ImmutableList.of()).update(configs);
+  }
+
+  /** Returns the route for the given method, or {@code null} if no route matches. */
+  @Nullable
+  public Route lookup(String fullMethodName) {
+    final Route route = methods.get(fullMethodName);
+    if (route != null) {
+      return route;
+    }
+    final String serviceName = MethodDescriptor.extractFullServiceName(fullMethodName);
+    if (serviceName != null) {
+      final Route service = services.get(serviceName);
+      if (service != null) {
+        return service;
+      }
+    }
+    return fallback;
+  }
+
+  /**
+   * Returns a new table with the given routes. Routes whose configuration has not changed are
+   * carried over along with their connection pools and stats; routes which were removed are closed.
+   */
+  public RouteTable update(List<RouteConfig> configs) {
+    final Set<String> matches = new HashSet<>();
+    for (RouteConfig config : configs) {
+      if (!matches.add(config.match())) {
+        throw new IllegalArgumentException("Duplicate route: " + config.match());
+      }
+    }
+
+    final Map<RouteConfig, Route> existing = new HashMap<>();
+    for (Route route : routes) {
+      existing.put(route.config(), route);
+    }
+
+    final ImmutableList.Builder<Route> updated = ImmutableList.builder();
+    for (RouteConfig config : configs) {
+      final Route route = existing.remove(config);
+      updated.add(route != null ? route : new Route(config, baseClient));
+    }
+
+    existing.values().forEach(Route::close);
+    return new RouteTable(baseClient, updated.build());
+  }
+
+  /**
+   * Returns the upstream, bulkhead, shadow, and health stats for each route since the last report.
+   */
+  public Map<String, RouteSnapshot> report() {
+    final Map<String, RouteSnapshot> snapshots = new LinkedHashMap<>();
+    for (Route route : routes) {
+      final Bulkhead bulkhead = route.bulkhead();
+      final Shadow shadow = route.shadow();
+      final HealthChecker healthChecker = route.healthChecker();
+      snapshots.put(
+          route.config().match(),
+          RouteSnapshot.create(
+              route.recorder().interval(),
+              route.recorder().windows(),
+              bulkhead == null ? null : bulkhead.report(),
+              shadow == null ? null : shadow.report(),
+              healthChecker == null ? null : healthChecker.report()));
+    }
+    return snapshots;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.admission.ByteBudget;
+import com.codahale.grpcproxy.config.ShadowConfig;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.Recorder;
+import com.codahale.grpcproxy.stats.ShadowSnapshot;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.StatusException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Copies a sample of a route's requests to a shadow upstream on a pool of its own threads, so the
+ * shadow's latency and errors never reach clients. Copies are dropped if the pool falls behind.
+ *
+ * <p>A queued copy keeps its request, and the primary's response if they're to be compared, on the
+ * heap until it's sent, so those bytes are held against the proxy's byte budget; copies which
+ * don't fit are dropped too, rather than crowding out real calls.
+ */
+public class Shadow {
+
+  private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+  private static final long MIN_DURATION = TimeUnit.MICROSECONDS.toMicros(500);
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  private final ShadowConfig config;
+  private final HttpUrl upstream;
+  private final OkHttpClient client;
+  private final ThreadPoolExecutor executor;
+  private final Recorder recorder =
+      new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+  private final IntervalAdder errors = new IntervalAdder();
+  private final IntervalAdder dropped = new IntervalAdder();
+  private final IntervalAdder mismatches = new IntervalAdder();
+
+  Shadow(String name, ShadowConfig config, OkHttpClient baseClient) {
+    this.config = config;
+    final HttpUrl url = HttpUrl.parse(config.upstream());
+    if (url == null) {
+      throw new IllegalArgumentException("Invalid shadow upstream: " + config.upstream());
+    }
+    this.upstream =
+        config.path() == null ? url : url.newBuilder().encodedPath(config.path()).build();
+    final ConnectionPool connectionPool =
+        new ConnectionPool(config.concurrency(), 5, TimeUnit.MINUTES);
+    this.client = baseClient.newBuilder().connectionPool(connectionPool).build();
+    this.executor =
+        new ThreadPoolExecutor(
+            config.concurrency(),
+            config.concurrency(),
+            1,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(config.maxQueueDepth()),
+            new ThreadFactoryBuilder()
+                .setNameFormat("shadow-" + name.replace('%', '_') + "-%d")
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Copies the given request to the shadow if it's sampled and there's room for it.
+   *
+   * @param response the primary upstream's response, or {@code null} if it failed
+   * @param budget the budget to hold the copy's bytes against until it's been sent
+   */
+  public void mirror(String methodName, byte[] msg, @Nullable byte[] response, ByteBudget budget) {
+    if (ThreadLocalRandom.current().nextDouble(100) >= config.percent()) {
+      return;
+    }
+
+    final byte[] expected = config.compare() ? response : null;
+    final ByteBudget.Reservation reservation;
+    try {
+      reservation = budget.reserve(msg.length + (expected == null ? 0 : expected.length));
+    } catch (StatusException e) {
+      dropped.add(1);
+      return;
+    }
+
+    try {
+      executor.execute(
+          () -> {
+            try (ByteBudget.Reservation ignored = reservation) {
+              send(methodName, msg, expected);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      reservation.close();
+      dropped.add(1);
+    }
+  }
+
+  private void send(String methodName, byte[] msg, @Nullable byte[] response) {
+    final HttpUrl url = upstream.newBuilder().addQueryParameter("method", methodName).build();
+    final RequestBody reqBody = RequestBody.create(OCTET_STREAM, msg);
+    final Request req = new Request.Builder().url(url).post(reqBody).build();
+    final long start = System.nanoTime();
+    try (Response resp = client.newCall(req).execute()) {
+      final ResponseBody respBody = resp.body();
+      if (!resp.isSuccessful()) {
+        errors.add(1);
+      } else if (response != null && respBody != null) {
+        if (!Arrays.equals(response, respBody.bytes())) {
+          mismatches.add(1);
+        }
+      }
+    } catch (IOException e) {
+      errors.add(1);
+    } finally {
+      recorder.record(start);
+    }
+  }
+
+  /** Returns the latency, errors, drops, and mismatches of shadow calls since the last report. */
+  public ShadowSnapshot report() {
+    return ShadowSnapshot.create(
+        recorder.interval(),
+        errors.interval(),
+        dropped.interval(),
+        config.compare() ? mismatches.interval() : null);
+  }
+
+  void close() {
+    executor.shutdown();
+    client.connectionPool().evictAll();
+  }
+}
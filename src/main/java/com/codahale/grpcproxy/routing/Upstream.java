@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.routing;
+
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.Recorder;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+
+/**
+ * One of a route's upstream servers, along with its own call stats and whether it's currently
+ * taken out of rotation by a failing health check or by outlier detection.
+ */
+public class Upstream {
+
+  private static final long MIN_DURATION = TimeUnit.MICROSECONDS.toMicros(500);
+  private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
+  private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+
+  private final HttpUrl url;
+  private final Recorder recorder =
+      new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.MICROSECONDS);
+  private final IntervalAdder errors = new IntervalAdder();
+  private volatile boolean healthy = true;
+  private volatile boolean ejected;
+
+  // Guarded by the route's health checker.
+  int failedProbes;
+  int passedProbes;
+  int ejections;
+  long ejectedUntil;
+
+  Upstream(HttpUrl url) {
+    this.url = url;
+  }
+
+  public HttpUrl url() {
+    return url;
+  }
+
+  /** Returns the URL of the given method on this upstream. */
+  public HttpUrl url(String methodName) {
+    return url.newBuilder().addQueryParameter("method", methodName).build();
+  }
+
+  /** Records the outcome of a call which began at the given {@link System#nanoTime()}. */
+  public void record(long start, boolean success) {
+    recorder.record(start);
+    if (!success) {
+      errors.add(1);
+    }
+  }
+
+  /** Returns whether the upstream is passing its health checks and isn't an outlier. */
+  public boolean isAvailable() {
+    return healthy && !ejected;
+  }
+
+  /** Returns the upstream's state: {@code healthy}, {@code unhealthy}, or {@code ejected}. */
+  String state() {
+    return !healthy ? "unhealthy" : ejected ? "ejected" : "healthy";
+  }
+
+  Recorder recorder() {
+    return recorder;
+  }
+
+  IntervalAdder errors() {
+    return errors;
+  }
+
+  boolean isHealthy() {
+    return healthy;
+  }
+
+  void setHealthy(boolean healthy) {
+    this.healthy = healthy;
+  }
+
+  boolean isEjected() {
+    return ejected;
+  }
+
+  void setEjected(boolean ejected) {
+    this.ejected = ejected;
+  }
+
+  // The hash ring places upstreams by their string form, so keep it the URL's.
+  @Override
+  public String toString() {
+    return url.toString();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+/**
+ * The results of one cell of an end-to-end benchmark: the same load sent directly to a gRPC server
+ * and through the proxy, along with the proxy's overhead.
+ */
+@AutoValue
+@JsonIgnoreProperties(ignoreUnknown = true)
+public abstract class BenchmarkCase {
+
+  @JsonCreator
+  public static BenchmarkCase create(
+      @JsonProperty("concurrency") int concurrency,
+      @JsonProperty("payload_size") int payloadSize,
+      @JsonProperty("tls") boolean tls,
+      @JsonProperty("direct") BenchmarkResult direct,
+      @JsonProperty("proxy") BenchmarkResult proxy) {
+    return new AutoValue_BenchmarkCase(concurrency, payloadSize, tls, direct, proxy);
+  }
+
+  @JsonProperty
+  public abstract int concurrency();
+
+  @JsonProperty("payload_size")
+  public abstract int payloadSize();
+
+  @JsonProperty
+  public abstract boolean tls();
+
+  @JsonProperty
+  public abstract BenchmarkResult direct();
+
+  @JsonProperty
+  public abstract BenchmarkResult proxy();
+
+  /** The latency the proxy adds to the median call, in seconds. */
+  @JsonProperty("overhead_p50")
+  public double overheadP50() {
+    return proxy().p50() - direct().p50();
+  }
+
+  /** The latency the proxy adds to the 99th percentile call, in seconds. */
+  @JsonProperty("overhead_p99")
+  public double overheadP99() {
+    return proxy().p99() - direct().p99();
+  }
+
+  /** The proxy's throughput as a fraction of the direct server's. */
+  @JsonProperty("throughput_ratio")
+  public double throughputRatio() {
+    return direct().throughput() == 0 ? 0 : proxy().throughput() / direct().throughput();
+  }
+
+  /** Returns whether the other case was run with the same parameters. */
+  public boolean sameParameters(BenchmarkCase other) {
+    return concurrency() == other.concurrency()
+        && payloadSize() == other.payloadSize()
+        && tls() == other.tls();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class ConnectionSnapshot {
+
+  public static ConnectionSnapshot create(
+      long open,
+      long streams,
+      long maxStreams,
+      double meanAge,
+      double maxAge,
+      IntervalCount opened,
+      IntervalCount closed,
+      Snapshot lifetime) {
+    return new AutoValue_ConnectionSnapshot(
+        open, streams, maxStreams, meanAge, maxAge, opened, closed, lifetime);
+  }
+
+  @JsonProperty
+  public abstract long open();
+
+  @JsonProperty
+  public abstract long streams();
+
+  @JsonProperty("max_streams")
+  public abstract long maxStreams();
+
+  @JsonProperty("mean_age")
+  public abstract double meanAge();
+
+  @JsonProperty("max_age")
+  public abstract double maxAge();
+
+  @JsonProperty
+  public abstract IntervalCount opened();
+
+  @JsonProperty
+  public abstract IntervalCount closed();
+
+  @JsonProperty
+  public abstract Snapshot lifetime();
+}
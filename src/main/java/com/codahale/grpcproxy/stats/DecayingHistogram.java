@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import java.util.Arrays;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+/**
+ * Exponentially decaying latency histograms over several windows at once, in the manner of a Unix
+ * load average. Each interval's bucket counts are added to the decayed counts of every interval
+ * before it, whose weight falls by a factor of {@code e} every window, so percentiles move smoothly
+ * and a window of history costs no more memory than a single histogram.
+ *
+ * <p>Not thread-safe; updated by whichever thread reports the {@link Recorder}.
+ */
+class DecayingHistogram {
+
+  private final long goalLatency;
+  private final double[] windows;
+  private final double[][] counts;
+  private final double[] totals;
+  private final double[] responseTimes;
+  private final double[] rates;
+  private long[] values = new long[0];
+  private boolean initialized;
+
+  /**
+   * @param goalLatency the latency, in microseconds, under which calls satisfy Apdex
+   * @param windows the length of each window, in seconds
+   */
+  DecayingHistogram(long goalLatency, double... windows) {
+    this.goalLatency = goalLatency;
+    this.windows = windows.clone();
+    this.counts = new double[windows.length][0];
+    this.totals = new double[windows.length];
+    this.responseTimes = new double[windows.length];
+    this.rates = new double[windows.length];
+  }
+
+  /**
+   * Adds an interval's latencies.
+   *
+   * @param histogram the interval's latencies, in microseconds
+   * @param responseTime the sum of the interval's latencies, in microseconds
+   * @param seconds the length of the interval
+   */
+  void update(Histogram histogram, long responseTime, double seconds) {
+    final long count = histogram.getTotalCount();
+    final double rate = count / seconds;
+    for (int w = 0; w < windows.length; w++) {
+      final double decay = Math.exp(-seconds / windows[w]);
+      final double[] c = counts[w];
+      for (int i = 0; i < c.length; i++) {
+        c[i] *= decay;
+      }
+      totals[w] = totals[w] * decay + count;
+      responseTimes[w] = responseTimes[w] * decay + responseTime;
+      rates[w] = initialized ? rates[w] + (1 - decay) * (rate - rates[w]) : rate;
+    }
+    initialized = true;
+
+    if (count == 0) {
+      return;
+    }
+
+    int i = 0;
+    for (HistogramIterationValue value : histogram.allValues()) {
+      if (i == values.length) {
+        grow(Math.max(64, values.length * 2));
+      }
+      values[i] = value.getValueIteratedTo();
+      final long n = value.getCountAtValueIteratedTo();
+      if (n != 0) {
+        for (double[] c : counts) {
+          c[i] += n;
+        }
+      }
+      i++;
+    }
+  }
+
+  private void grow(int length) {
+    values = Arrays.copyOf(values, length);
+    for (int w = 0; w < counts.length; w++) {
+      counts[w] = Arrays.copyOf(counts[w], length);
+    }
+  }
+
+  /** Returns the given window's stats, with its decayed number of calls as the count. */
+  Snapshot snapshot(int window) {
+    final double total = totals[window];
+    if (total < 1) {
+      return new AutoValue_Snapshot(0, rates[window], 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    final double[] c = counts[window];
+    double satisfied = 0, tolerating = 0;
+    for (int i = 0; i < c.length && values[i] <= goalLatency * 4; i++) {
+      if (values[i] <= goalLatency) {
+        satisfied += c[i];
+      } else {
+        tolerating += c[i];
+      }
+    }
+    final double x = rates[window];
+    final double r = responseTimes[window] / total * 1e-6;
+    return new AutoValue_Snapshot(
+        Math.round(total),
+        x,
+        x * r,
+        r,
+        percentile(c, total, 50),
+        percentile(c, total, 90),
+        percentile(c, total, 99),
+        percentile(c, total, 99.9),
+        Math.min(1.0, (satisfied + (tolerating / 2.0)) / total));
+  }
+
+  private double percentile(double[] c, double total, double percentile) {
+    final double target = total * percentile / 100;
+    double sum = 0;
+    int last = 0;
+    for (int i = 0; i < c.length; i++) {
+      if (c[i] > 0) {
+        sum += c[i];
+        last = i;
+        if (sum >= target) {
+          break;
+        }
+      }
+    }
+    return values[last] * 1e-6;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import org.HdrHistogram.Histogram;
+
+/**
+ * A method's latency histogram for a single interval on a single instance, compressed and base64
+ * encoded so that histograms from many instances can be shipped to one place and merged. Values
+ * are in microseconds; timestamps are in milliseconds since the epoch.
+ */
+@AutoValue
+public abstract class EncodedHistogram {
+
+  @JsonCreator
+  public static EncodedHistogram create(
+      @JsonProperty("instance") String instance,
+      @JsonProperty("method") String method,
+      @JsonProperty("start_time") long startTime,
+      @JsonProperty("end_time") long endTime,
+      @JsonProperty("histogram") String histogram) {
+    return new AutoValue_EncodedHistogram(instance, method, startTime, endTime, histogram);
+  }
+
+  public static EncodedHistogram encode(String instance, String method, Histogram histogram) {
+    final ByteBuffer buf = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+    final int len = histogram.encodeIntoCompressedByteBuffer(buf);
+    return create(
+        instance,
+        method,
+        histogram.getStartTimeStamp(),
+        histogram.getEndTimeStamp(),
+        Base64.getEncoder().encodeToString(Arrays.copyOf(buf.array(), len)));
+  }
+
+  @JsonProperty
+  public abstract String instance();
+
+  @JsonProperty
+  public abstract String method();
+
+  @JsonProperty("start_time")
+  public abstract long startTime();
+
+  @JsonProperty("end_time")
+  public abstract long endTime();
+
+  @JsonProperty
+  public abstract String histogram();
+
+  public Histogram decode() throws DataFormatException {
+    final byte[] bytes = Base64.getDecoder().decode(histogram());
+    return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), 0);
+  }
+}
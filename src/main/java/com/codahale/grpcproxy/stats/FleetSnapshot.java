@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import org.HdrHistogram.Histogram;
+
+@AutoValue
+public abstract class FleetSnapshot {
+
+  /** Summarizes a histogram of latencies in microseconds, merged from the given instances. */
+  public static FleetSnapshot create(int instances, Histogram histogram, double seconds) {
+    final long count = histogram.getTotalCount();
+    return new AutoValue_FleetSnapshot(
+        instances,
+        count,
+        count / seconds,
+        histogram.getValueAtPercentile(50) * 1e-6,
+        histogram.getValueAtPercentile(90) * 1e-6,
+        histogram.getValueAtPercentile(99) * 1e-6,
+        histogram.getValueAtPercentile(99.9) * 1e-6,
+        histogram.getMaxValue() * 1e-6);
+  }
+
+  @JsonProperty
+  public abstract int instances();
+
+  @JsonProperty
+  public abstract long count();
+
+  @JsonProperty
+  public abstract double throughput();
+
+  @JsonProperty
+  public abstract double p50();
+
+  @JsonProperty
+  public abstract double p90();
+
+  @JsonProperty
+  public abstract double p99();
+
+  @JsonProperty
+  public abstract double p999();
+
+  @JsonProperty
+  public abstract double max();
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the most frequent keys in a stream using a fixed number of counters, with the Space-Saving
+ * algorithm. A key which isn't counted takes over the counter with the lowest count, inheriting
+ * that count, so a flood of distinct keys only churns the least frequent counters while frequent
+ * keys keep theirs.
+ *
+ * <p>Rather than keeping the counters sorted, the lowest is found among a few picked at random, so
+ * counting a new key takes constant time. With many more counters than frequent keys, it's all but
+ * certain that some infrequent counter is picked. Counting a key which already has a counter
+ * doesn't lock. Counts decay each time {@link #decay()} is called, so keys which have stopped
+ * appearing make way for new ones.
+ */
+public class HeavyHitters {
+
+  private static final int SAMPLES = 8;
+
+  private final int capacity;
+  private final double decay;
+  private final ConcurrentMap<String, Counter> counters;
+  private final Counter[] slots;
+  private int size;
+
+  /**
+   * @param capacity the number of keys to count
+   * @param decay the fraction of each count which remains after {@link #decay()} is called
+   */
+  public HeavyHitters(int capacity, double decay) {
+    this.capacity = capacity;
+    this.decay = decay;
+    this.counters = new ConcurrentHashMap<>(capacity * 2);
+    this.slots = new Counter[capacity];
+  }
+
+  public void add(String key) {
+    Counter counter = counters.get(key);
+    if (counter == null) {
+      counter = replaceMin(key);
+    }
+    counter.count.increment();
+  }
+
+  private synchronized Counter replaceMin(String key) {
+    final Counter existing = counters.get(key);
+    if (existing != null) {
+      return existing;
+    }
+
+    int slot;
+    double floor = 0;
+    if (size < capacity) {
+      slot = size++;
+    } else {
+      final Random random = ThreadLocalRandom.current();
+      slot = random.nextInt(capacity);
+      for (int i = 1; i < SAMPLES; i++) {
+        final int candidate = random.nextInt(capacity);
+        if (slots[candidate].estimate() < slots[slot].estimate()) {
+          slot = candidate;
+        }
+      }
+      floor = slots[slot].estimate();
+      counters.remove(slots[slot].key);
+    }
+    final Counter counter = new Counter(key, floor);
+    slots[slot] = counter;
+    counters.put(key, counter);
+    return counter;
+  }
+
+  /** Folds each key's recent count into its total, and ages the totals. */
+  public synchronized void decay() {
+    for (int i = 0; i < size; i++) {
+      final Counter counter = slots[i];
+      counter.total = (counter.total + counter.count.sumThenReset()) * decay;
+      counter.error *= decay;
+    }
+  }
+
+  /**
+   * Returns up to the given number of keys with the highest counts, highest first, leaving out
+   * those which may have been counted less than the given number of times. A counter's count is an
+   * overestimate by as much as it inherited, so a stream of distinct keys never has any.
+   */
+  public List<String> top(int k, double minCount) {
+    // snapshot the estimates, since they can change while sorting
+    final Map<String, Double> estimates = new HashMap<>(counters.size() * 2);
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      final Counter counter = entry.getValue();
+      final double estimate = counter.estimate();
+      if (estimate - counter.error >= minCount) {
+        estimates.put(entry.getKey(), estimate);
+      }
+    }
+    return estimates
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+        .limit(k)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+  }
+
+  private static class Counter {
+
+    private final String key;
+    private final LongAdder count = new LongAdder();
+    private volatile double total;
+    private volatile double error;
+
+    private Counter(String key, double total) {
+      this.key = key;
+      this.total = total;
+      this.error = total;
+    }
+
+    private double estimate() {
+      return total + count.sum();
+    }
+  }
+}
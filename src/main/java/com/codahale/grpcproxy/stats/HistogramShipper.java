@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends interval histograms to a collector, either as a JSON array in an HTTP {@code POST} to an
+ * {@code http://} URI, or as one JSON object per datagram to a {@code udp://host:port} URI.
+ */
+public class HistogramShipper {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HistogramShipper.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final MediaType JSON = MediaType.parse("application/json");
+  private static final int MAX_DATAGRAM_SIZE = 65_507;
+
+  private final String instance;
+  @Nullable private final HttpUrl url;
+  @Nullable private final OkHttpClient client;
+  @Nullable private final InetSocketAddress address;
+  @Nullable private final DatagramSocket socket;
+
+  public HistogramShipper(String instance, URI collector) throws IOException {
+    this.instance = instance;
+    if ("udp".equals(collector.getScheme())) {
+      this.url = null;
+      this.client = null;
+      this.address = new InetSocketAddress(collector.getHost(), collector.getPort());
+      this.socket = new DatagramSocket();
+    } else {
+      this.url = HttpUrl.get(collector);
+      if (url == null) {
+        throw new IllegalArgumentException("Invalid collector: " + collector);
+      }
+      this.client = new OkHttpClient();
+      this.address = null;
+      this.socket = null;
+    }
+  }
+
+  /**
+   * Encodes and sends the given histograms. They're encoded before this returns, so they can be
+   * reused afterwards; HTTP requests are sent in the background.
+   */
+  public void ship(Map<String, Histogram> histograms) {
+    final List<EncodedHistogram> encoded = new ArrayList<>(histograms.size());
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      encoded.add(EncodedHistogram.encode(instance, entry.getKey(), entry.getValue()));
+    }
+
+    try {
+      if (socket != null) {
+        sendDatagrams(encoded);
+      } else if (!encoded.isEmpty()) {
+        post(encoded);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Error shipping histograms", e);
+    }
+  }
+
+  private void sendDatagrams(List<EncodedHistogram> encoded) throws IOException {
+    for (EncodedHistogram histogram : encoded) {
+      final byte[] buf = MAPPER.writeValueAsBytes(histogram);
+      if (buf.length > MAX_DATAGRAM_SIZE) {
+        LOGGER.warn("Histogram for {} is too large for a datagram", histogram.method());
+        continue;
+      }
+      socket.send(new DatagramPacket(buf, buf.length, address));
+    }
+  }
+
+  private void post(List<EncodedHistogram> encoded) throws JsonProcessingException {
+    final RequestBody body = RequestBody.create(JSON, MAPPER.writeValueAsBytes(encoded));
+    client
+        .newCall(new Request.Builder().url(url).post(body).build())
+        .enqueue(
+            new Callback() {
+              @Override
+              public void onFailure(Call call, IOException e) {
+                LOGGER.warn("Error shipping histograms", e);
+              }
+
+              @Override
+              public void onResponse(Call call, Response response) {
+                if (!response.isSuccessful()) {
+                  LOGGER.warn("Error shipping histograms: {}", response.code());
+                }
+                response.close();
+              }
+            });
+  }
+
+  public void close() {
+    if (socket != null) {
+      socket.close();
+    }
+  }
+}
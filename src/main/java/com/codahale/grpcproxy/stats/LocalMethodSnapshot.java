@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class LocalMethodSnapshot {
+
+  public static LocalMethodSnapshot create(double percent, Snapshot local, Snapshot proxied) {
+    return new AutoValue_LocalMethodSnapshot(percent, local, proxied);
+  }
+
+  /** The percentage of calls being served locally. */
+  @JsonProperty
+  public abstract double percent();
+
+  @JsonProperty
+  public abstract Snapshot local();
+
+  @JsonProperty
+  public abstract Snapshot proxied();
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+@AutoValue
+public abstract class QueueSnapshot {
+
+  public static QueueSnapshot create(
+      long inFlight, long depth, IntervalCount rejected, Snapshot waitTime) {
+    return new AutoValue_QueueSnapshot(inFlight, depth, rejected, waitTime);
+  }
+
+  @JsonProperty("in_flight")
+  public abstract long inFlight();
+
+  @JsonProperty
+  public abstract long depth();
+
+  @JsonProperty
+  public abstract IntervalCount rejected();
+
+  @JsonProperty("wait_time")
+  public abstract Snapshot waitTime();
+}
@@ -27,7 +27,10 @@ public class Recorder {
   private final IntervalAdder responseTime;
   private final org.HdrHistogram.Recorder latency;
   private final long goalLatency;
+  private final DecayingHistogram decaying;
   private volatile Histogram histogram;
+  private volatile WindowedSnapshot windows;
+  private long timestamp;
 
   public Recorder(long minLatency, long maxLatency, long goalLatency, TimeUnit latencyUnit) {
     this.goalLatency = latencyUnit.toMicros(goalLatency);
@@ -37,6 +40,9 @@ public class Recorder {
         new org.HdrHistogram.Recorder(
             latencyUnit.toMicros(minLatency), latencyUnit.toMicros(maxLatency), 1);
     this.histogram = latency.getIntervalHistogram(); // preload reporting histogram
+    this.decaying = new DecayingHistogram(this.goalLatency, 60, 300, 900);
+    this.windows = decayingWindows();
+    this.timestamp = System.nanoTime();
   }
 
   public void record(long startNanoTime) {
@@ -63,6 +69,10 @@ public class Recorder {
     final double p99 = h.getValueAtPercentile(99) * 1e-6;
     final double p999 = h.getValueAtPercentile(99.9) * 1e-6;
     this.histogram = h;
+    final long t = System.nanoTime();
+    decaying.update(h, responseTimeCount.count(), (t - timestamp) * 1e-9);
+    this.timestamp = t;
+    this.windows = decayingWindows();
     final double r, n, apdex;
     if (c == 0) {
       r = n = apdex = 0;
@@ -73,4 +83,26 @@ public class Recorder {
     }
     return new AutoValue_Snapshot(c, x, n, r, p50, p90, p99, p999, apdex);
   }
+
+  /**
+   * Returns exponentially decaying stats over the last one, five, and fifteen minutes, as of the
+   * last call to {@link #interval()}. Unlike an interval's, these are stable enough to make
+   * decisions with.
+   */
+  public WindowedSnapshot windows() {
+    return windows;
+  }
+
+  /**
+   * Returns the latency histogram, in microseconds, of the interval most recently reported. It's
+   * reused by the next call to {@link #interval()}.
+   */
+  public Histogram intervalHistogram() {
+    return histogram;
+  }
+
+  private WindowedSnapshot decayingWindows() {
+    return WindowedSnapshot.create(
+        decaying.snapshot(0), decaying.snapshot(1), decaying.snapshot(2));
+  }
 }
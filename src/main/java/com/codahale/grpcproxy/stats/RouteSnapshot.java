@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import javax.annotation.Nullable;
+
+@AutoValue
+public abstract class RouteSnapshot {
+
+  public static RouteSnapshot create(
+      Snapshot upstream,
+      WindowedSnapshot windows,
+      @Nullable BulkheadSnapshot bulkhead,
+      @Nullable ShadowSnapshot shadow,
+      @Nullable HealthSnapshot health) {
+    return new AutoValue_RouteSnapshot(upstream, windows, bulkhead, shadow, health);
+  }
+
+  @JsonProperty
+  public abstract Snapshot upstream();
+
+  @JsonProperty
+  public abstract WindowedSnapshot windows();
+
+  @Nullable
+  @JsonProperty
+  public abstract BulkheadSnapshot bulkhead();
+
+  @Nullable
+  @JsonProperty
+  public abstract ShadowSnapshot shadow();
+
+  @Nullable
+  @JsonProperty
+  public abstract HealthSnapshot health();
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+@AutoValue
+public abstract class WarmupSnapshot {
+
+  public static WarmupSnapshot create(
+      double duration, long calls, long errors, List<BenchmarkResult> rounds) {
+    return new AutoValue_WarmupSnapshot(duration, calls, errors, ImmutableList.copyOf(rounds));
+  }
+
+  /** The time the warm-up took, in seconds. */
+  @JsonProperty
+  public abstract double duration();
+
+  @JsonProperty
+  public abstract long calls();
+
+  @JsonProperty
+  public abstract long errors();
+
+  /** The throughput and latency of each successive round of calls. */
+  @JsonProperty
+  public abstract List<BenchmarkResult> rounds();
+}
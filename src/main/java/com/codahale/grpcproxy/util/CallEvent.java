@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for a single proxied call. Only calls slower than the event's threshold
+ * (10ms unless the recording's settings say otherwise) are recorded.
+ *
+ * <p>This class can't be loaded on JVMs without Flight Recorder's event API, so it's only used once
+ * {@link StatsTracerFactory} has checked for it.
+ */
+@Name("com.codahale.grpcproxy.Call")
+@Label("Proxied Call")
+@Category("gRPC Proxy")
+@Description("A gRPC call proxied to an HTTP upstream")
+@Threshold("10 ms")
+@StackTrace(false)
+class CallEvent extends Event {
+
+  @Label("Method")
+  String method;
+
+  @Label("Status")
+  String status;
+
+  @Label("Bytes In")
+  @DataAmount
+  long bytesIn;
+
+  @Label("Bytes Out")
+  @DataAmount
+  long bytesOut;
+
+  @Label("Queue Time")
+  @Description("Time spent waiting for a bulkhead and for admission")
+  @Timespan
+  long queueTime;
+
+  @Label("Upstream Time")
+  @Description("Time spent waiting for the upstream's response")
+  @Timespan
+  long upstreamTime;
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.util;
+
+import io.grpc.Context;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * The size of a call's messages and the time it spent queued and waiting on its upstream, recorded
+ * for the call's Flight Recorder event. Only present in a call's context while calls are being
+ * recorded.
+ */
+public class CallTimings {
+
+  static final Context.Key<CallTimings> KEY = Context.key("call-timings");
+
+  // added to by the stream tracer from both the transport and application threads
+  final LongAdder bytesIn = new LongAdder();
+  final LongAdder bytesOut = new LongAdder();
+  volatile long queueTime;
+  volatile long upstreamTime;
+  private volatile long arrivedAt;
+
+  /** Returns the current call's timings, or {@code null} if they're not being recorded. */
+  @Nullable
+  public static CallTimings current() {
+    return KEY.get();
+  }
+
+  /** Marks the call's arrival at the proxy, before any bulkhead or admission queue. */
+  public void arrived() {
+    this.arrivedAt = System.nanoTime();
+  }
+
+  /** Records the time since the call's arrival as time spent queued. */
+  public void admitted() {
+    this.queueTime = System.nanoTime() - arrivedAt;
+  }
+
+  /** Records the time since the given {@link System#nanoTime()} as time spent upstream. */
+  public void upstream(long startNanoTime) {
+    this.upstreamTime = System.nanoTime() - startNanoTime;
+  }
+}
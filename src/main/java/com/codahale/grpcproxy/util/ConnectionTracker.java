@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.util;
+
+import com.codahale.grpcproxy.stats.ConnectionSnapshot;
+import com.codahale.grpcproxy.stats.IntervalAdder;
+import com.codahale.grpcproxy.stats.Recorder;
+import io.grpc.Attributes;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerStreamTracer;
+import io.grpc.ServerTransportFilter;
+import io.grpc.Status;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks a gRPC server's open connections and the streams on each, so that it can be seen whether
+ * clients are spread evenly across instances and how long they stay connected.
+ *
+ * <p>Install it as both a transport filter and a stream tracer factory.
+ */
+public class ConnectionTracker extends ServerTransportFilter {
+
+  private static final Attributes.Key<Connection> CONNECTION = Attributes.Key.of("connection");
+  private static final long MIN_DURATION = 1;
+  private static final long GOAL_DURATION = TimeUnit.HOURS.toSeconds(1);
+  private static final long MAX_DURATION = TimeUnit.DAYS.toSeconds(7);
+
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+  private final IntervalAdder opened = new IntervalAdder();
+  private final IntervalAdder closed = new IntervalAdder();
+  private final Recorder lifetime =
+      new Recorder(MIN_DURATION, MAX_DURATION, GOAL_DURATION, TimeUnit.SECONDS);
+  private final ServerStreamTracer.Factory streams =
+      new ServerStreamTracer.Factory() {
+        @Override
+        public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+          return new StreamTracer();
+        }
+      };
+
+  @Override
+  public Attributes transportReady(Attributes attributes) {
+    final Connection connection = new Connection();
+    connections.add(connection);
+    opened.add(1);
+    return Attributes.newBuilder(attributes).set(CONNECTION, connection).build();
+  }
+
+  @Override
+  public void transportTerminated(Attributes attributes) {
+    final Connection connection = attributes.get(CONNECTION);
+    if (connection != null && connections.remove(connection)) {
+      closed.add(1);
+      lifetime.record(connection.start);
+    }
+  }
+
+  /** Returns the stream tracer factory which counts each connection's streams. */
+  public ServerStreamTracer.Factory streams() {
+    return streams;
+  }
+
+  /**
+   * Returns the number of open connections and their streams, the ages of the open connections,
+   * and the number of connections opened and closed and the lifetimes of those closed since the
+   * last report.
+   */
+  public ConnectionSnapshot report() {
+    final long now = System.nanoTime();
+    long open = 0, streams = 0, maxStreams = 0, totalAge = 0, maxAge = 0;
+    for (Connection connection : connections) {
+      final int active = connection.streams.get();
+      final long age = now - connection.start;
+      open++;
+      streams += active;
+      maxStreams = Math.max(maxStreams, active);
+      totalAge += age;
+      maxAge = Math.max(maxAge, age);
+    }
+    return ConnectionSnapshot.create(
+        open,
+        streams,
+        maxStreams,
+        open == 0 ? 0 : totalAge * 1e-9 / open,
+        maxAge * 1e-9,
+        opened.interval(),
+        closed.interval(),
+        lifetime.interval());
+  }
+
+  private static class Connection {
+
+    private final long start = System.nanoTime();
+    private final AtomicInteger streams = new AtomicInteger();
+  }
+
+  // Streams are only tied to their connection once their call starts, so those rejected before
+  // then aren't counted.
+  private static class StreamTracer extends ServerStreamTracer {
+
+    @Nullable private volatile Connection connection;
+
+    @Override
+    public void serverCallStarted(ServerCall<?, ?> call) {
+      final Connection connection = call.getAttributes().get(CONNECTION);
+      if (connection != null) {
+        connection.streams.incrementAndGet();
+        this.connection = connection;
+      }
+    }
+
+    @Override
+    public void streamClosed(Status status) {
+      final Connection connection = this.connection;
+      if (connection != null) {
+        connection.streams.decrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.util;
+
+/**
+ * Finds top-level fields in encoded protobuf messages by walking their tags, without decoding the
+ * message or allocating.
+ *
+ * <p>A located field is returned as a single {@code long} packing the offset and length of its
+ * value: the payload of a length-delimited field, the raw bytes of a varint, or the four or eight
+ * bytes of a fixed-width field.
+ */
+public class ProtoFields {
+
+  public static final long NOT_FOUND = -1;
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_START_GROUP = 3;
+  private static final int WIRETYPE_END_GROUP = 4;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  /**
+   * Returns the position of the last top-level occurrence of the given field, or {@link
+   * #NOT_FOUND} if the message doesn't contain it or is malformed. As when parsing, a later
+   * occurrence of a singular field overrides earlier ones.
+   */
+  public static long find(byte[] msg, int fieldNumber) {
+    int pos = 0;
+    int depth = 0;
+    long found = NOT_FOUND;
+    while (pos < msg.length) {
+      // read the tag
+      long tag = 0;
+      int shift = 0;
+      while (true) {
+        if (pos >= msg.length || shift > 28) {
+          return NOT_FOUND;
+        }
+        final byte b = msg[pos++];
+        tag |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          break;
+        }
+        shift += 7;
+      }
+
+      final int wireType = (int) (tag & 0x7);
+      final long number = tag >>> 3;
+      final int start;
+      final long length;
+      switch (wireType) {
+        case WIRETYPE_VARINT:
+          start = pos;
+          do {
+            if (pos >= msg.length || pos - start >= 10) {
+              return NOT_FOUND;
+            }
+          } while (msg[pos++] < 0);
+          length = pos - start;
+          break;
+        case WIRETYPE_FIXED64:
+          start = pos;
+          length = 8;
+          break;
+        case WIRETYPE_LENGTH_DELIMITED:
+          length = readLength(msg, pos);
+          if (length < 0) {
+            return NOT_FOUND;
+          }
+          pos = (int) (length >>> 32);
+          start = pos;
+          break;
+        case WIRETYPE_FIXED32:
+          start = pos;
+          length = 4;
+          break;
+        case WIRETYPE_START_GROUP:
+          depth++;
+          continue;
+        case WIRETYPE_END_GROUP:
+          if (--depth < 0) {
+            return NOT_FOUND;
+          }
+          continue;
+        default:
+          return NOT_FOUND;
+      }
+
+      final int len = (int) (length & 0xFFFFFFFFL);
+      if (len > msg.length - start) {
+        return NOT_FOUND;
+      }
+      if (depth == 0 && number == fieldNumber) {
+        found = ((long) start << 32) | len;
+      }
+      pos = start + len;
+    }
+    return found;
+  }
+
+  /** Returns the offset of the value of a field found by {@link #find(byte[], int)}. */
+  public static int offset(long field) {
+    return (int) (field >>> 32);
+  }
+
+  /** Returns the length of the value of a field found by {@link #find(byte[], int)}. */
+  public static int length(long field) {
+    return (int) field;
+  }
+
+  // Reads a length prefix, returning the position after it and the length packed together, or -1.
+  private static long readLength(byte[] msg, int pos) {
+    int length = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (pos >= msg.length) {
+        return -1;
+      }
+      final byte b = msg[pos++];
+      length |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return length < 0 ? -1 : ((long) pos << 32) | length;
+      }
+    }
+    return -1;
+  }
+}
@@ -14,25 +14,44 @@
 
 package com.codahale.grpcproxy.util;
 
+import com.codahale.grpcproxy.stats.HeavyHitters;
+import com.codahale.grpcproxy.stats.HistogramShipper;
 import com.codahale.grpcproxy.stats.IntervalAdder;
 import com.codahale.grpcproxy.stats.Recorder;
+import com.google.common.collect.ImmutableSet;
+import io.grpc.Context;
 import io.grpc.Metadata;
 import io.grpc.ServerStreamTracer;
 import io.grpc.Status;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import net.logstash.logback.marker.LogstashMarker;
 import net.logstash.logback.marker.Markers;
+import org.HdrHistogram.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A stream tracer factory which measures throughput, concurrency, response time, and latency
  * distribution.
+ *
+ * <p>Method names come from clients, so only a bounded number of methods are measured separately:
+ * those it's told are known, plus the most frequently called others (with at least a few recent
+ * calls), which are found with a {@link HeavyHitters} sketch and re-chosen after each report.
+ * Calls to every other method are measured together under {@code other_methods}. A method which
+ * stops being one of the most frequent is reported one last time and its histograms are dropped;
+ * one which becomes frequent is measured separately from the next report on.
  */
 public class StatsTracerFactory extends ServerStreamTracer.Factory {
 
@@ -40,28 +59,73 @@ public class StatsTracerFactory extends ServerStreamTracer.Factory {
   private static final long MIN_DURATION = TimeUnit.MICROSECONDS.toMicros(500);
   private static final long GOAL_DURATION = TimeUnit.MILLISECONDS.toMicros(10);
   private static final long MAX_DURATION = TimeUnit.SECONDS.toMicros(30);
+  private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+  private static final int DEFAULT_MAX_METHODS = 100;
+  private static final int SKETCH_FACTOR = 10;
+  private static final double DECAY = Math.pow(0.5, 1.0 / 60); // a half-life of one minute
+  private static final double MIN_CALLS = 10;
+  private static final String OTHER_METHODS = "other_methods";
 
   private final IntervalAdder bytesIn = new IntervalAdder();
   private final IntervalAdder bytesOut = new IntervalAdder();
   private final Recorder all = newRecorder();
   private final ConcurrentMap<String, Recorder> endpoints = new ConcurrentHashMap<>();
+  private final Recorder other = newRecorder();
+  private final Set<String> knownMethods;
+  private final int maxMethods;
+  private final HeavyHitters methods;
+  private final Map<String, Supplier<?>> gauges = new ConcurrentSkipListMap<>();
+  @Nullable private volatile HistogramShipper shipper;
   private ScheduledExecutorService executor;
 
+  public StatsTracerFactory() {
+    this(ImmutableSet.of(), DEFAULT_MAX_METHODS);
+  }
+
+  /**
+   * @param knownMethods the methods which are always measured separately
+   * @param maxMethods the number of other methods to measure separately
+   */
+  public StatsTracerFactory(Set<String> knownMethods, int maxMethods) {
+    this.knownMethods = ImmutableSet.copyOf(knownMethods);
+    this.maxMethods = maxMethods;
+    this.methods = new HeavyHitters(Math.max(1, maxMethods * SKETCH_FACTOR), DECAY);
+    for (String method : knownMethods) {
+      endpoints.put(method, newRecorder());
+    }
+  }
+
   @Override
   public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+    if (!knownMethods.contains(fullMethodName)) {
+      methods.add(fullMethodName);
+    }
 
     return new ServerStreamTracer() {
       final long start = System.nanoTime();
-      final Recorder endpoint = endpoints.computeIfAbsent(fullMethodName, k -> newRecorder());
+      final Recorder endpoint = endpoints.getOrDefault(fullMethodName, other);
+      @Nullable final CallEvent event = FLIGHT_RECORDER ? beginEvent() : null;
+      @Nullable final CallTimings timings = event == null ? null : new CallTimings();
+
+      @Override
+      public Context filterContext(Context context) {
+        return timings == null ? context : context.withValue(CallTimings.KEY, timings);
+      }
 
       @Override
       public void outboundWireSize(long bytes) {
         bytesOut.add(bytes);
+        if (timings != null) {
+          timings.bytesOut.add(bytes);
+        }
       }
 
       @Override
       public void inboundWireSize(long bytes) {
         bytesIn.add(bytes);
+        if (timings != null) {
+          timings.bytesIn.add(bytes);
+        }
       }
 
       @Override
@@ -74,10 +138,58 @@ public class StatsTracerFactory extends ServerStreamTracer.Factory {
             "request handled");
         all.record(start);
         endpoint.record(start);
+        if (event != null) {
+          commitEvent(event, timings, fullMethodName, status);
+        }
       }
     };
   }
 
+  // Checks whether the event's enabled before beginning it, so that calls cost next to nothing
+  // unless they're being recorded.
+  @Nullable
+  private static CallEvent beginEvent() {
+    final CallEvent event = new CallEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  private static void commitEvent(
+      CallEvent event, CallTimings timings, String fullMethodName, Status status) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.method = fullMethodName;
+      event.status = status.getCode().name();
+      event.bytesIn = timings.bytesIn.sum();
+      event.bytesOut = timings.bytesOut.sum();
+      event.queueTime = timings.queueTime;
+      event.upstreamTime = timings.upstreamTime;
+      event.commit();
+    }
+  }
+
+  private static boolean isFlightRecorderAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, StatsTracerFactory.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /** Adds a named value which is calculated and included in each report. */
+  public void register(String name, Supplier<?> gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /** Sends each method's latency histogram to a collector after each report. */
+  public void ship(HistogramShipper shipper) {
+    this.shipper = shipper;
+  }
+
   public void start() {
     executor = Executors.newSingleThreadScheduledExecutor();
     executor.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
@@ -85,6 +197,10 @@ public class StatsTracerFactory extends ServerStreamTracer.Factory {
 
   public void stop() {
     executor.shutdown();
+    final HistogramShipper shipper = this.shipper;
+    if (shipper != null) {
+      shipper.close();
+    }
   }
 
   /**
@@ -96,12 +212,36 @@ public class StatsTracerFactory extends ServerStreamTracer.Factory {
   private void report() {
     LogstashMarker marker =
         Markers.append("all", all.interval())
+            .and(Markers.append("all_windows", all.windows()))
             .and(Markers.append("bytes_in", bytesIn.interval()))
             .and(Markers.append("bytes_out", bytesOut.interval()));
+    final Map<String, Histogram> histograms = new HashMap<>();
     for (Entry<String, Recorder> entry : endpoints.entrySet()) {
       marker = marker.and(Markers.append(entry.getKey(), entry.getValue().interval()));
+      histograms.put(entry.getKey(), entry.getValue().intervalHistogram());
+    }
+    marker = marker.and(Markers.append(OTHER_METHODS, other.interval()));
+    histograms.put(OTHER_METHODS, other.intervalHistogram());
+    for (Entry<String, Supplier<?>> entry : gauges.entrySet()) {
+      marker = marker.and(Markers.append(entry.getKey(), entry.getValue().get()));
     }
     LOGGER.info(marker, "stats");
+    rebalance();
+
+    final HistogramShipper shipper = this.shipper;
+    if (shipper != null) {
+      shipper.ship(histograms);
+    }
+  }
+
+  // Measures the most frequent methods separately from here on, and drops the rest.
+  private void rebalance() {
+    methods.decay();
+    final Set<String> top = new HashSet<>(methods.top(maxMethods, MIN_CALLS));
+    endpoints.keySet().removeIf(method -> !top.contains(method) && !knownMethods.contains(method));
+    for (String method : top) {
+      endpoints.computeIfAbsent(method, k -> newRecorder());
+    }
   }
 
   private Recorder newRecorder() {
@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codahale.grpcproxy.util;
+
+import io.airlift.airline.Option;
+import io.grpc.netty.GrpcHttp2ConnectionHandler;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.ProtocolNegotiator;
+import io.grpc.netty.ProtocolNegotiators;
+import io.netty.handler.ssl.SslContext;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTTP/2 settings of a gRPC server: its flow-control window, limits on connections and
+ * messages, and keepalives. Commands which run a gRPC server include these as options.
+ *
+ * <p>With {@code --max-connection-age}, connections are sent a GOAWAY once they're around that old,
+ * give or take a random 10% so that clients which connected together don't all reconnect together.
+ * Calls already in flight carry on, for up to {@code --max-connection-age-grace}, while the client
+ * makes new calls on a new connection, which may well be to a different instance.
+ *
+ * <p>With {@code --auto-flow-control}, each connection starts with the configured window and grows
+ * it to fit the connection's bandwidth-delay product, which is measured by timing a PING sent along
+ * with received data. Windows only grow, up to 8MiB. This uses the BDP estimator built into
+ * grpc-netty, which it doesn't yet expose; if it can't be found, the fixed window is used instead.
+ */
+public class TransportOptions {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransportOptions.class);
+  @Nullable private static final Method SET_AUTO_TUNE = autoTuneMethod();
+
+  @Option(
+    name = "--flow-control-window",
+    description = "the initial HTTP/2 flow-control window of each connection, in bytes"
+  )
+  private int flowControlWindow = NettyServerBuilder.DEFAULT_FLOW_CONTROL_WINDOW;
+
+  @Option(
+    name = "--auto-flow-control",
+    description = "grow each connection's window to fit its measured bandwidth-delay product"
+  )
+  private boolean autoFlowControl = false;
+
+  @Option(
+    name = "--max-concurrent-calls-per-connection",
+    description = "the maximum number of concurrent calls on each connection"
+  )
+  private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
+
+  @Option(
+    name = "--max-message-size",
+    description = "the maximum size of a received message, in bytes"
+  )
+  private int maxMessageSize = 4 << 20;
+
+  @Option(
+    name = "--keepalive-time",
+    description = "the time a connection can be idle before it's sent a keepalive ping, in seconds"
+  )
+  private long keepAliveTime = TimeUnit.HOURS.toSeconds(2);
+
+  @Option(
+    name = "--keepalive-timeout",
+    description = "the time to wait for a keepalive ping's ack before closing, in seconds"
+  )
+  private long keepAliveTimeout = 20;
+
+  @Option(
+    name = "--permit-keepalive-time",
+    description = "the shortest time between clients' keepalive pings which is allowed, in seconds"
+  )
+  private long permitKeepAliveTime = TimeUnit.MINUTES.toSeconds(5);
+
+  @Option(
+    name = "--max-connection-age",
+    description = "the age at which connections are drained, +/-10%, in seconds (default: never)"
+  )
+  private long maxConnectionAge = 0;
+
+  @Option(
+    name = "--max-connection-age-grace",
+    description = "the time draining connections' calls have to finish, in seconds (default: any)"
+  )
+  private long maxConnectionAgeGrace = 0;
+
+  public TransportOptions flowControlWindow(int flowControlWindow) {
+    this.flowControlWindow = flowControlWindow;
+    return this;
+  }
+
+  public TransportOptions autoFlowControl(boolean autoFlowControl) {
+    this.autoFlowControl = autoFlowControl;
+    return this;
+  }
+
+  public TransportOptions maxMessageSize(int maxMessageSize) {
+    this.maxMessageSize = maxMessageSize;
+    return this;
+  }
+
+  /**
+   * Applies these settings to the given server builder.
+   *
+   * @param tls the server's TLS context, or {@code null} to accept plaintext connections
+   */
+  public NettyServerBuilder configure(NettyServerBuilder builder, @Nullable TlsContext tls)
+      throws SSLException {
+    builder
+        .flowControlWindow(flowControlWindow)
+        .maxConcurrentCallsPerConnection(maxConcurrentCallsPerConnection)
+        .maxMessageSize(maxMessageSize)
+        .keepAliveTime(keepAliveTime, TimeUnit.SECONDS)
+        .keepAliveTimeout(keepAliveTimeout, TimeUnit.SECONDS)
+        .permitKeepAliveTime(permitKeepAliveTime, TimeUnit.SECONDS);
+    if (maxConnectionAge > 0) {
+      builder.maxConnectionAge(maxConnectionAge, TimeUnit.SECONDS);
+    }
+    if (maxConnectionAgeGrace > 0) {
+      builder.maxConnectionAgeGrace(maxConnectionAgeGrace, TimeUnit.SECONDS);
+    }
+    final SslContext sslContext = tls == null ? null : tls.toServerContext();
+    if (autoFlowControl && SET_AUTO_TUNE == null) {
+      LOGGER.warn("Flow control auto-tuning is unavailable, using a fixed window");
+    }
+    if (autoFlowControl && SET_AUTO_TUNE != null) {
+      final ProtocolNegotiator negotiator =
+          sslContext == null
+              ? ProtocolNegotiators.serverPlaintext()
+              : ProtocolNegotiators.serverTls(sslContext);
+      builder.protocolNegotiator(handler -> negotiator.newHandler(autoTune(handler)));
+    } else if (sslContext != null) {
+      builder.sslContext(sslContext);
+    }
+    return builder;
+  }
+
+  private static GrpcHttp2ConnectionHandler autoTune(GrpcHttp2ConnectionHandler handler) {
+    if (SET_AUTO_TUNE != null && SET_AUTO_TUNE.getDeclaringClass().isInstance(handler)) {
+      try {
+        SET_AUTO_TUNE.invoke(handler, true);
+      } catch (ReflectiveOperationException e) {
+        LOGGER.warn("Unable to auto-tune flow control", e);
+      }
+    }
+    return handler;
+  }
+
+  @Nullable
+  private static Method autoTuneMethod() {
+    try {
+      final Method method =
+          Class.forName("io.grpc.netty.AbstractNettyHandler")
+              .getDeclaredMethod("setAutoTuneFlowControl", boolean.class);
+      method.setAccessible(true);
+      return method;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOGGER.debug("Unable to find grpc-netty's BDP estimator", e);
+      return null;
+    }
+  }
+}